@@ -0,0 +1,65 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.canvas.DrawingCanvas;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full-canvas repaints with a growing number of shapes
+ * "cached" is a plain repaint; "rebuilt" first drops the shape layer, as
+ * after an undo or load, so every shape is drawn again
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CanvasPaintBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int shapeCount;
+
+    private DrawingCanvas canvas;
+    private BufferedImage screen;
+    private Graphics2D g;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvas = Fixtures.canvas(shapeCount);
+        screen = new BufferedImage(Fixtures.WIDTH, Fixtures.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintCached() {
+        canvas.paint(g);
+        return screen;
+    }
+
+    @Benchmark
+    public BufferedImage paintRebuilt() {
+        canvas.getShapeLayerCache().invalidate();
+        canvas.paint(g);
+        return screen;
+    }
+}
@@ -0,0 +1,131 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.canvas.DrawingCanvas;
+import com.drawingstudio.manager.DrawingDocument;
+import com.drawingstudio.manager.FileManager;
+import com.drawingstudio.manager.ImageLoadListener;
+import com.drawingstudio.manager.ProgressiveImageLoader;
+import com.drawingstudio.manager.RasterTiles;
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading a drawing in the native format and as PNG
+ * PNG files are loaded the way the app opens them: band by band through
+ * ProgressiveImageLoader, each band drawn into a surface on the event thread
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileBenchmark {
+
+    @Param({"dsd", "png"})
+    public String format;
+
+    @Param({"1000"})
+    public int shapeCount;
+
+    private File directory;
+    private File file;
+    private RasterTiles raster;
+    private List<ShapeBase> shapes;
+    private ProgressiveImageLoader imageLoader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DrawingCanvas canvas = Fixtures.canvas(shapeCount);
+        raster = RasterTiles.capture(canvas.getSurface());
+        shapes = Fixtures.shapes(shapeCount);
+
+        directory = Files.createTempDirectory("drawingstudio-bench").toFile();
+        file = new File(directory, "drawing." + format);
+        FileManager.saveToFile(file, raster, shapes);
+        imageLoader = new ProgressiveImageLoader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File child : directory.listFiles()) {
+            child.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean save() {
+        return FileManager.saveToFile(file, raster, shapes);
+    }
+
+    @Benchmark
+    public Object load() throws InterruptedException, ExecutionException {
+        if (format.equals("dsd")) {
+            DrawingDocument document = FileManager.loadDocument(file);
+            return document.getShapeCount();
+        }
+        return loadImage().get();
+    }
+
+    /**
+     * Stream the PNG into a fresh surface, with the whole canvas on screen
+     */
+    private CompletableFuture<TiledSurface> loadImage() {
+        TiledSurface surface = new TiledSurface(Fixtures.WIDTH, Fixtures.HEIGHT);
+        Rectangle area = surface.getBounds();
+        CompletableFuture<TiledSurface> done = new CompletableFuture<>();
+        imageLoader.load(file, area, area, new ImageLoadListener() {
+            @Override
+            public void loadStarted(File loadedFile, Rectangle region) {
+            }
+
+            @Override
+            public void previewLoaded(BufferedImage preview, Rectangle region) {
+            }
+
+            @Override
+            public void regionLoaded(BufferedImage pixels, Rectangle region) {
+                surface.draw(region, g -> {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(region.x, region.y, region.width, region.height);
+                    g.drawImage(pixels, region.x, region.y, null);
+                });
+            }
+
+            @Override
+            public void loadCompleted(File loadedFile, long elapsedMillis) {
+                done.complete(surface);
+            }
+
+            @Override
+            public void loadFailed(File loadedFile, Exception error) {
+                done.completeExceptionally(error);
+            }
+        });
+        return done;
+    }
+}
@@ -0,0 +1,55 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.canvas.DrawingCanvas;
+import java.awt.Color;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fill tool clicks on the default 1000x700 canvas, history recording included
+ * With no shapes the whole canvas is filled; with shapes their outlines break
+ * the fill into many spans, and drawing them to find the boundaries is part
+ * of the cost. Colors alternate so every click changes the drawing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FillBenchmark {
+
+    @Param({"0", "1000"})
+    public int shapeCount;
+
+    private DrawingCanvas canvas;
+    private MouseEvent click;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvas = Fixtures.canvas(shapeCount);
+        canvas.setCurrentTool("FILL");
+        click = new MouseEvent(canvas, MouseEvent.MOUSE_PRESSED, 0, 0, 1, 1, 1, false, MouseEvent.BUTTON1);
+    }
+
+    @Benchmark
+    public DrawingCanvas fill() {
+        flip = !flip;
+        canvas.setCurrentColor(flip ? Color.RED : Color.BLUE);
+        canvas.handleMousePressed(click);
+        return canvas;
+    }
+}
@@ -0,0 +1,81 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.canvas.DrawingCanvas;
+import com.drawingstudio.shapes.DiamondShape;
+import com.drawingstudio.shapes.LineShape;
+import com.drawingstudio.shapes.OvalShape;
+import com.drawingstudio.shapes.RectShape;
+import com.drawingstudio.shapes.ShapeBase;
+import com.drawingstudio.shapes.TriangleShape;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Repeatable drawings for the benchmarks
+ * A fixed seed keeps every run measuring the same shapes
+ */
+final class Fixtures {
+    static final int WIDTH = 1000;
+    static final int HEIGHT = 700;
+
+    private static final String[] TOOLS = {"LINE", "RECTANGLE", "OVAL", "TRIANGLE", "DIAMOND"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Create shapes of every type spread over the default canvas
+     */
+    static List<ShapeBase> shapes(int count) {
+        Random random = new Random(42);
+        List<ShapeBase> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Point start = new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+            Point end = new Point(start.x + random.nextInt(161) - 80, start.y + random.nextInt(161) - 80);
+            Color color = new Color(random.nextInt(0xFFFFFF));
+            int width = 1 + random.nextInt(8);
+            switch (i % 5) {
+                case 0: shapes.add(new LineShape(start, end, color, width)); break;
+                case 1: shapes.add(new RectShape(start, end, color, width)); break;
+                case 2: shapes.add(new OvalShape(start, end, color, width)); break;
+                case 3: shapes.add(new TriangleShape(start, end, color, width)); break;
+                default: shapes.add(new DiamondShape(start, end, color, width)); break;
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Create a canvas with shapes drawn on it the way a user would, through its mouse handlers
+     */
+    static DrawingCanvas canvas(int shapeCount) {
+        DrawingCanvas canvas = new DrawingCanvas(null, WIDTH, HEIGHT);
+        canvas.setSize(WIDTH, HEIGHT);
+        draw(canvas, shapeCount, 42);
+        return canvas;
+    }
+
+    /**
+     * Draw shapes onto a canvas's active layer through its mouse handlers
+     */
+    static void draw(DrawingCanvas canvas, int shapeCount, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < shapeCount; i++) {
+            canvas.setCurrentTool(TOOLS[i % TOOLS.length]);
+            canvas.setCurrentColor(new Color(random.nextInt(0xFFFFFF)));
+            int x = random.nextInt(WIDTH);
+            int y = random.nextInt(HEIGHT);
+            canvas.handleMousePressed(mouse(canvas, MouseEvent.MOUSE_PRESSED, x, y));
+            canvas.handleMouseReleased(mouse(canvas, MouseEvent.MOUSE_RELEASED,
+                x + random.nextInt(161) - 80, y + random.nextInt(161) - 80));
+        }
+    }
+
+    private static MouseEvent mouse(DrawingCanvas canvas, int id, int x, int y) {
+        return new MouseEvent(canvas, id, System.currentTimeMillis(), 0, x, y, 1, false, MouseEvent.BUTTON1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.manager.AddShapeOperation;
+import com.drawingstudio.manager.HistoryManager;
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording, undoing and redoing actions on a history of a given length
+ * Each benchmark leaves the history as it found it, so iterations stay comparable
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBenchmark {
+
+    @Param({"100", "1000"})
+    public int historyLength;
+
+    private HistoryManager history;
+    private TiledSurface surface;
+    private List<ShapeBase> shapes;
+    private ShapeBase extra;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<ShapeBase> fixtures = Fixtures.shapes(historyLength + 1);
+        extra = fixtures.remove(historyLength);
+
+        surface = new TiledSurface(Fixtures.WIDTH, Fixtures.HEIGHT);
+        shapes = new ArrayList<>();
+        // Nothing here runs on the event dispatch thread, so ignore heap pressure
+        // rather than evict from another thread; the budget alone limits history
+        history = new HistoryManager(task -> { });
+        history.reset(surface, shapes);
+        for (ShapeBase shape : fixtures) {
+            shapes.add(shape);
+            history.record(new AddShapeOperation(shape), surface, shapes);
+        }
+    }
+
+    /**
+     * Record one more shape, then undo it again
+     */
+    @Benchmark
+    public int recordAndUndo() {
+        shapes.add(extra);
+        history.record(new AddShapeOperation(extra), surface, shapes);
+        history.undo(surface, shapes);
+        return shapes.size();
+    }
+
+    /**
+     * Undo the last action and redo it
+     */
+    @Benchmark
+    public int undoRedo() {
+        history.undo(surface, shapes);
+        history.redo(surface, shapes);
+        return shapes.size();
+    }
+}
@@ -0,0 +1,72 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.shapes.ShapeBase;
+import com.drawingstudio.shapes.ShapeIndex;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the topmost shape under the eraser
+ * "scan" tests every shape from the top down, as the eraser once did;
+ * "index" asks the shape index
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HitTestBenchmark {
+    private static final int PROBES = 256;
+
+    @Param({"100", "1000", "10000"})
+    public int shapeCount;
+
+    private List<ShapeBase> shapes;
+    private ShapeIndex index;
+    private Point[] probes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        shapes = Fixtures.shapes(shapeCount);
+        index = new ShapeIndex(new Rectangle(0, 0, Fixtures.WIDTH, Fixtures.HEIGHT));
+        index.rebuild(shapes);
+
+        // Probe points on a grid so some hit and most miss
+        probes = new Point[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = new Point((i % 16) * Fixtures.WIDTH / 16 + 7, (i / 16) * Fixtures.HEIGHT / 16 + 5);
+        }
+    }
+
+    @Benchmark
+    public ShapeBase scan() {
+        Point p = probes[next++ & (PROBES - 1)];
+        for (int i = shapes.size() - 1; i >= 0; i--) {
+            if (shapes.get(i).contains(p)) {
+                return shapes.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public ShapeBase index() {
+        return index.findTopmost(probes[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,76 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.canvas.DrawingCanvas;
+import com.drawingstudio.canvas.Layer;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full-canvas repaints of a drawing with a growing number of layers
+ * Every layer holds 200 shapes, every other one is faded to 75%, and the
+ * middle layer is active. "cached" is a plain repaint, which should not grow
+ * with the layer count; "flattened" first drops the cached layers below and
+ * above the active one, as when the stack changes, so every layer is drawn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LayerBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int layerCount;
+
+    private DrawingCanvas canvas;
+    private BufferedImage screen;
+    private Graphics2D g;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvas = Fixtures.canvas(200);
+        for (int i = 1; i < layerCount; i++) {
+            canvas.addLayer(i % 2 == 0 ? Layer.Kind.RASTER : Layer.Kind.VECTOR);
+            Fixtures.draw(canvas, 200, 42 + i);
+            if (i % 2 == 1) {
+                canvas.setLayerOpacity(0.75f);
+            }
+        }
+        canvas.selectLayer(layerCount / 2);
+        screen = new BufferedImage(Fixtures.WIDTH, Fixtures.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintCached() {
+        canvas.paint(g);
+        return screen;
+    }
+
+    @Benchmark
+    public BufferedImage paintFlattened() {
+        canvas.getLayerCompositeCache().invalidate();
+        canvas.paint(g);
+        return screen;
+    }
+}
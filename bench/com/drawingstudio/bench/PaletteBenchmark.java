@@ -0,0 +1,54 @@
+package com.drawingstudio.bench;
+
+import com.drawingstudio.ui.ColorPalettePanel;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Painting the HSB gradient of the custom color dialog
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PaletteBenchmark {
+
+    private Component gradient;
+    private BufferedImage screen;
+    private Graphics2D g;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The gradient canvas is the first child of the panel
+        gradient = new ColorPalettePanel().getComponent(0);
+        screen = new BufferedImage(gradient.getWidth(), gradient.getHeight(), BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintGradient() {
+        gradient.paint(g);
+        return screen;
+    }
+}
@@ -9,6 +9,7 @@ if not exist bin mkdir bin
 REM Compile all Java files
 javac -d bin ^
     src\com\drawingstudio\shapes\*.java ^
+    src\com\drawingstudio\render\*.java ^
     src\com\drawingstudio\manager\*.java ^
     src\com\drawingstudio\utils\*.java ^
     src\com\drawingstudio\ui\*.java ^
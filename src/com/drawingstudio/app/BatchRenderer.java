@@ -0,0 +1,171 @@
+package com.drawingstudio.app;
+
+import com.drawingstudio.manager.DocumentFormat;
+import com.drawingstudio.manager.FileManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Headless entry point that renders a directory of drawings to PNG
+ * Used for server-side thumbnails and exports; no window is ever opened
+ *
+ * Usage: java -cp bin com.drawingstudio.app.BatchRenderer input-dir output-dir [--scale s] [--threads n] [--timeout t]
+ */
+public class BatchRenderer {
+
+    /**
+     * Outcome of rendering one document
+     */
+    private static class Result {
+        final File source;
+        final long inputBytes;
+        final long outputBytes;
+        final long millis;
+        final Exception error;
+
+        Result(File source, long inputBytes, long outputBytes, long millis, Exception error) {
+            this.source = source;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.millis = millis;
+            this.error = error;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // Must be set before any AWT class is initialized
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 2) {
+            printUsage();
+            System.exit(2);
+        }
+        File inputDir = new File(args[0]);
+        File outputDir = new File(args[1]);
+        double scale = 1.0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeoutSeconds = 300;
+        try {
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--scale":
+                        scale = Double.parseDouble(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--timeout":
+                        timeoutSeconds = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (scale <= 0 || threads < 1 || timeoutSeconds < 1) {
+                throw new IllegalArgumentException("Scale, thread count and timeout must be positive");
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        File[] documents = inputDir.listFiles(file -> file.isFile() && DocumentFormat.isNativeFile(file));
+        if (documents == null) {
+            System.out.println("Error: cannot read directory " + inputDir);
+            System.exit(1);
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.out.println("Error: cannot create directory " + outputDir);
+            System.exit(1);
+        }
+        Arrays.sort(documents);
+
+        int failures = render(documents, outputDir, scale, threads, timeoutSeconds);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Render documents on a fixed pool of worker threads and print a summary
+     * @param timeoutSeconds Longest wait for any one document, so a stuck one cannot stall the batch
+     * @return Number of documents that failed
+     */
+    private static int render(File[] documents, File outputDir, double scale, int threads, long timeoutSeconds)
+            throws InterruptedException {
+        System.out.println("Rendering " + documents.length + " documents at scale " + scale + " on " + threads + " threads");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<Result>> pending = new ArrayList<>();
+        for (File document : documents) {
+            pending.add(pool.submit(() -> renderOne(document, outputDir, scale)));
+        }
+        pool.shutdown();
+
+        // Report in input order; failures go to stderr and make the exit status non-zero
+        long inputBytes = 0;
+        long outputBytes = 0;
+        int failures = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            Result result;
+            try {
+                result = pending.get(i).get(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                // Errors, e.g. running out of memory, that renderOne does not catch
+                failures++;
+                System.err.println(documents[i].getName() + ": failed: " + e.getCause());
+                continue;
+            } catch (TimeoutException e) {
+                pending.get(i).cancel(true);
+                failures++;
+                System.err.println(documents[i].getName() + ": failed: timed out after " + timeoutSeconds + " s");
+                continue;
+            }
+            if (result.error != null) {
+                failures++;
+                System.err.println(result.source.getName() + ": failed: " + result.error);
+            } else {
+                inputBytes += result.inputBytes;
+                outputBytes += result.outputBytes;
+                System.out.println(result.source.getName() + ": " + result.millis + " ms, " + result.outputBytes / 1024 + " KB");
+            }
+        }
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        int rendered = documents.length - failures;
+        System.out.println(String.format("Rendered %d of %d documents in %.2f s: %.1f files/s, %.1f MB/s read, %.1f MB/s written",
+            rendered, documents.length, seconds, rendered / seconds,
+            inputBytes / seconds / (1024 * 1024), outputBytes / seconds / (1024 * 1024)));
+        return failures;
+    }
+
+    private static Result renderOne(File document, File outputDir, double scale) {
+        String name = document.getName();
+        File target = new File(outputDir, name.substring(0, name.length() - DocumentFormat.EXTENSION.length()) + ".png");
+        long start = System.nanoTime();
+        try {
+            long written = FileManager.exportDocument(document, target, scale);
+            return new Result(document, document.length(), written, (System.nanoTime() - start) / 1_000_000, null);
+        } catch (Exception e) {
+            return new Result(document, document.length(), 0, (System.nanoTime() - start) / 1_000_000, e);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java -cp bin com.drawingstudio.app.BatchRenderer input-dir output-dir [--scale s] [--threads n] [--timeout t]");
+        System.out.println("  Renders every " + DocumentFormat.EXTENSION + " document in input-dir to PNG in output-dir");
+        System.out.println("  --scale s    output size relative to the document (default 1.0)");
+        System.out.println("  --threads n  worker threads (default: number of cores)");
+        System.out.println("  --timeout t  seconds to wait for any one document before failing it (default 300)");
+    }
+}
@@ -1,9 +1,14 @@
 package com.drawingstudio.app;
 
+import com.drawingstudio.canvas.ColorPickListener;
 import com.drawingstudio.canvas.DrawingCanvas;
+import com.drawingstudio.canvas.Layer;
+import com.drawingstudio.canvas.LayerStack;
 import com.drawingstudio.events.CanvasMouseHandler;
 import com.drawingstudio.events.CanvasMotionHandler;
+import com.drawingstudio.events.InputCoalescer;
 import com.drawingstudio.manager.FileDialogManager;
+import com.drawingstudio.manager.SaveListener;
 import com.drawingstudio.ui.*;
 import com.drawingstudio.utils.ColorUtils;
 
@@ -17,7 +22,7 @@ import javax.swing.*;
  * Minimal class that only handles application initialization and event coordination
  * All heavy lifting is delegated to respective packages
  */
-public class SimpleDrawingApp extends JFrame implements ActionListener {
+public class SimpleDrawingApp extends JFrame implements ActionListener, ColorPickListener {
     private DrawingCanvas canvas;
     private Color currentColor = Color.BLACK;
     private int brushSize = 3;
@@ -26,7 +31,8 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
     // UI Components
     private JButton lineBtn, rectBtn, ovalBtn, triangleBtn, diamondBtn;
     private JButton clearBtn, undoBtn, redoBtn, saveBtn, loadBtn, colorPickerBtn, customColorBtn;
-    private Choice colorChoice, brushChoice, toolChoice;
+    private JButton newLayerBtn, newVectorBtn, deleteLayerBtn, visibilityBtn, raiseBtn, lowerBtn;
+    private Choice colorChoice, brushChoice, toolChoice, layerChoice, opacityChoice;
     private Label statusLabel;
     private Canvas colorPreviewBox;
     
@@ -70,10 +76,18 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
         colorPickerBtn = new RoundedButton("Color Picker", new Color(39, 174, 96));
         customColorBtn = new RoundedButton("Custom Color...", new Color(39, 174, 96));
         
+        newLayerBtn = new RoundedButton("+ Raster", new Color(142, 68, 173));
+        newVectorBtn = new RoundedButton("+ Vector", new Color(142, 68, 173));
+        deleteLayerBtn = new RoundedButton("Delete", new Color(142, 68, 173));
+        visibilityBtn = new RoundedButton("Hide", new Color(142, 68, 173));
+        raiseBtn = new RoundedButton("Up", new Color(142, 68, 173));
+        lowerBtn = new RoundedButton("Down", new Color(142, 68, 173));
+        
         // Apply styling using ButtonStyler
         ButtonStyler.styleShapeButtons(lineBtn, rectBtn, ovalBtn, triangleBtn, diamondBtn);
         ButtonStyler.styleActionButtons(clearBtn, undoBtn, redoBtn, saveBtn, loadBtn);
         ButtonStyler.styleColorButtons(colorPickerBtn, customColorBtn);
+        ButtonStyler.styleLayerButtons(newLayerBtn, newVectorBtn, deleteLayerBtn, visibilityBtn, raiseBtn, lowerBtn);
         
         // Create choice components
         colorChoice = new Choice();
@@ -92,6 +106,15 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
         toolChoice.add("Brush");
         toolChoice.add("Eraser");
         toolChoice.add("Color Picker");
+        toolChoice.add("Fill");
+        
+        // Layers are listed top first, as they are stacked
+        layerChoice = new Choice();
+        opacityChoice = new Choice();
+        for (int percent = 100; percent >= 25; percent -= 25) {
+            opacityChoice.add(percent + "%");
+        }
+        refreshLayerControls();
         
         // Color preview box
         colorPreviewBox = new Canvas() {
@@ -130,12 +153,19 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
             clearBtn, undoBtn, redoBtn, saveBtn, loadBtn
         );
         
+        JPanel layersPanel = ToolbarFactory.createLayersPanel(
+            layerChoice, opacityChoice, newLayerBtn, newVectorBtn, deleteLayerBtn, visibilityBtn, raiseBtn, lowerBtn
+        );
+        
         JPanel toolPanel = ToolbarFactory.createMainToolbar(
-            propertiesPanel, shapesPanel, actionsPanel
+            propertiesPanel, shapesPanel, actionsPanel, layersPanel
         );
         
         add(toolPanel, BorderLayout.NORTH);
-        add(canvas, BorderLayout.CENTER);
+        // Scroll around drawings larger than the window
+        ScrollPane canvasScroller = new ScrollPane(ScrollPane.SCROLLBARS_AS_NEEDED);
+        canvasScroller.add(canvas);
+        add(canvasScroller, BorderLayout.CENTER);
         add(statusLabel, BorderLayout.SOUTH);
     }
     
@@ -156,15 +186,36 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
         loadBtn.addActionListener(this);
         colorPickerBtn.addActionListener(this);
         customColorBtn.addActionListener(this);
+        newLayerBtn.addActionListener(this);
+        newVectorBtn.addActionListener(this);
+        deleteLayerBtn.addActionListener(this);
+        visibilityBtn.addActionListener(this);
+        raiseBtn.addActionListener(this);
+        lowerBtn.addActionListener(this);
         
         // Add item listeners for choices
         colorChoice.addItemListener(e -> handleColorChange());
         brushChoice.addItemListener(e -> handleBrushSizeChange());
         toolChoice.addItemListener(e -> handleToolChange());
+        layerChoice.addItemListener(e -> handleLayerChange());
+        opacityChoice.addItemListener(e -> handleOpacityChange());
+        // Layers change from the buttons above, and go back to one when a file is loaded
+        canvas.addPropertyChangeListener(DrawingCanvas.LAYERS_PROPERTY, e -> refreshLayerControls());
+        canvas.addPropertyChangeListener(DrawingCanvas.MESSAGE_PROPERTY, e -> statusLabel.setText(e.getNewValue() + " | Tool: " + currentTool));
         
         // Add mouse event handlers to canvas
-        canvas.addMouseListener(new CanvasMouseHandler(canvas));
-        canvas.addMouseMotionListener(new CanvasMotionHandler(canvas));
+        InputCoalescer coalescer = new InputCoalescer(canvas);
+        canvas.addMouseListener(new CanvasMouseHandler(canvas, coalescer));
+        canvas.addMouseMotionListener(new CanvasMotionHandler(canvas, coalescer));
+        
+        // F3 toggles the performance overlay wherever the keyboard focus is
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(e -> {
+            if (e.getID() == KeyEvent.KEY_PRESSED && e.getKeyCode() == KeyEvent.VK_F3) {
+                canvas.setHudVisible(!canvas.isHudVisible());
+                return true;
+            }
+            return false;
+        });
     }
     
     @Override
@@ -209,6 +260,25 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
             case "Load":
                 handleLoad();
                 break;
+            case "+ Raster":
+                canvas.addLayer(Layer.Kind.RASTER);
+                break;
+            case "+ Vector":
+                canvas.addLayer(Layer.Kind.VECTOR);
+                break;
+            case "Delete":
+                canvas.removeLayer();
+                break;
+            case "Hide":
+            case "Show":
+                canvas.setLayerVisible(command.equals("Show"));
+                break;
+            case "Up":
+                canvas.moveLayer(1);
+                break;
+            case "Down":
+                canvas.moveLayer(-1);
+                break;
         }
     }
     
@@ -261,11 +331,46 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
             case "Color Picker":
                 currentTool = "COLOR_PICKER";
                 break;
+            case "Fill":
+                currentTool = "FILL";
+                break;
         }
         canvas.setCurrentTool(currentTool);
         updateStatusLabel();
     }
     
+    /**
+     * Handle a different layer picked from the dropdown
+     */
+    private void handleLayerChange() {
+        LayerStack layers = canvas.getLayers();
+        canvas.selectLayer(layers.size() - 1 - layerChoice.getSelectedIndex());
+    }
+    
+    /**
+     * Handle opacity change of the active layer
+     */
+    private void handleOpacityChange() {
+        String percent = opacityChoice.getSelectedItem();
+        canvas.setLayerOpacity(Integer.parseInt(percent.substring(0, percent.length() - 1)) / 100f);
+    }
+    
+    /**
+     * Show the canvas's layers, with the active one selected, in the layer controls
+     */
+    private void refreshLayerControls() {
+        LayerStack layers = canvas.getLayers();
+        layerChoice.removeAll();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            layerChoice.add(layers.get(i).toString());
+        }
+        layerChoice.select(layers.size() - 1 - layers.getActiveIndex());
+        
+        Layer active = layers.getActive();
+        opacityChoice.select(Math.round(active.getOpacity() * 4) * 25 + "%");
+        visibilityBtn.setText(active.isVisible() ? "Hide" : "Show");
+    }
+    
     /**
      * Handle custom color selection using DialogManager
      */
@@ -285,7 +390,23 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
     private void handleSave() {
         File file = FileDialogManager.showSaveDialog(this);
         if (file != null) {
-            canvas.saveToFile(file);
+            statusLabel.setText("Saving " + file.getName() + "...");
+            canvas.saveToFileAsync(file, new SaveListener() {
+                @Override
+                public void saveProgress(File target, float percent) {
+                    statusLabel.setText("Saving " + target.getName() + "... " + (int) percent + "%");
+                }
+                
+                @Override
+                public void saveCompleted(File target, long elapsedMillis) {
+                    statusLabel.setText("Saved " + target.getName() + " in " + elapsedMillis + " ms | Tool: " + currentTool);
+                }
+                
+                @Override
+                public void saveFailed(File target, Exception error) {
+                    statusLabel.setText("Could not save " + target.getName() + ": " + error.getMessage());
+                }
+            });
         }
     }
     
@@ -310,7 +431,8 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
     /**
      * Called by canvas when color is picked
      */
-    public void setPickedColor(Color color) {
+    @Override
+    public void colorPicked(Color color) {
         this.currentColor = color;
         canvas.setCurrentColor(color);
         colorPreviewBox.repaint();
@@ -329,6 +451,19 @@ public class SimpleDrawingApp extends JFrame implements ActionListener {
         colorChoice.select(colorChoice.getItemCount() - 1);
     }
     
+    /**
+     * Called by canvas as the color picker moves, to preview the color under it
+     */
+    @Override
+    public void colorHovered(Color color, Point location) {
+        if (color == null) {
+            statusLabel.setText("Color Picker: Click on canvas to pick a color | Tool: " + currentTool);
+        } else {
+            statusLabel.setText("Color Picker: " + ColorUtils.formatRGB(color) + " at " + location.x + ", " + location.y
+                + " | Click to pick | Tool: " + currentTool);
+        }
+    }
+    
     public static void main(String[] args) {
         new SimpleDrawingApp();
     }
@@ -0,0 +1,217 @@
+package com.drawingstudio.canvas;
+
+import java.awt.BufferCapabilities;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import com.drawingstudio.utils.PerformanceMonitor;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws the canvas from its own thread through a BufferStrategy
+ *
+ * Mouse input is queued by the event dispatch thread and run here at the
+ * start of the next frame, so handing over input never waits for drawing.
+ * The input and the frame that shows it run under the canvas scene lock,
+ * so every frame is drawn from one consistent state of the drawing. Frames
+ * are drawn straight into the strategy's back buffer, only when something
+ * asked for one, and at most once per frame interval. Where the strategy
+ * keeps the back buffer's contents between frames, only the areas asked
+ * for are redrawn.
+ */
+class ActiveRenderer implements Runnable {
+    private static final int BUFFERS = 2;
+
+    private final DrawingCanvas canvas;
+    private final Object sceneLock;
+    private final long frameNanos;
+    private final ConcurrentLinkedQueue<Runnable> input = new ConcurrentLinkedQueue<>();
+
+    // Guarded by itself; set when a frame is wanted, cleared when one is drawn
+    private final Object signal = new Object();
+    private boolean frameRequested = false;
+    private boolean fullFrame = false;
+    private Rectangle damage;
+
+    private volatile boolean running = false;
+    private BufferStrategy strategy;
+    private boolean keepsContents;
+    private Thread thread;
+
+    ActiveRenderer(DrawingCanvas canvas, Object sceneLock, int framesPerSecond) {
+        this.canvas = canvas;
+        this.sceneLock = sceneLock;
+        this.frameNanos = 1_000_000_000L / Math.max(1, framesPerSecond);
+    }
+
+    /**
+     * Create the buffer strategy and start the render thread
+     * The canvas must be displayable
+     * @return false if no buffer strategy could be created, in which case nothing was started
+     */
+    public boolean start() {
+        try {
+            canvas.createBufferStrategy(BUFFERS);
+            strategy = canvas.getBufferStrategy();
+        } catch (RuntimeException e) {
+            System.out.println("Active rendering unavailable, using repaint: " + e.getMessage());
+            return false;
+        }
+        if (strategy == null) {
+            return false;
+        }
+        BufferCapabilities caps = strategy.getCapabilities();
+        keepsContents = !caps.isPageFlipping() || caps.getFlipContents() == BufferCapabilities.FlipContents.COPIED;
+
+        running = true;
+        thread = new Thread(this, "canvas-render");
+        thread.setDaemon(true);
+        thread.start();
+        requestFrame();
+        return true;
+    }
+
+    /**
+     * Stop drawing; the thread finishes the frame in progress and exits
+     * Input still queued is dropped, as the canvas is going away
+     */
+    public void stop() {
+        running = false;
+        requestFrame();
+    }
+
+    /**
+     * Queue input to run on the render thread before the next frame
+     */
+    public void submit(Runnable action) {
+        input.add(action);
+        // The input asks for the areas it changes itself, through repaint
+        synchronized (signal) {
+            frameRequested = true;
+            signal.notify();
+        }
+    }
+
+    /**
+     * Ask for the whole visible area to be drawn in the next frame
+     */
+    public void requestFrame() {
+        synchronized (signal) {
+            frameRequested = true;
+            fullFrame = true;
+            signal.notify();
+        }
+    }
+
+    /**
+     * Ask for part of the canvas to be drawn; requests before the next frame are merged
+     */
+    public void requestFrame(Rectangle region) {
+        synchronized (signal) {
+            frameRequested = true;
+            damage = damage == null ? new Rectangle(region) : damage.union(region);
+            signal.notify();
+        }
+    }
+
+    public boolean isRenderThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        long lastFrame = System.nanoTime() - frameNanos;
+        while (running) {
+            synchronized (signal) {
+                while (!frameRequested && running) {
+                    try {
+                        signal.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+
+            // Wait out the rest of the frame interval; requests meanwhile join this frame
+            long remaining = lastFrame + frameNanos - System.nanoTime();
+            if (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            if (!running) {
+                break;
+            }
+            lastFrame = System.nanoTime();
+
+            try {
+                drawFrame();
+            } catch (RuntimeException e) {
+                if (running) {
+                    System.out.println("Error drawing frame: " + e);
+                }
+            }
+        }
+    }
+
+    private void drawFrame() {
+        // After a lost or restored back buffer every pass draws the whole area
+        boolean redrawAll = false;
+        do {
+            do {
+                Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    synchronized (sceneLock) {
+                        runInput();
+                        // Taken after the input so the areas it changed are in this frame
+                        Rectangle region = takeDamage(redrawAll);
+                        if (region != null && region.isEmpty()) {
+                            // Input that changed nothing on screen, e.g. a hover
+                            return;
+                        }
+                        canvas.renderFrame(g, region);
+                    }
+                } finally {
+                    g.dispose();
+                }
+                redrawAll = true;
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+        PerformanceMonitor.recordFrameShown();
+    }
+
+    /**
+     * Take the area requested since the last frame
+     * @return The area to redraw, empty if nothing was asked for, or null to redraw everything
+     */
+    private Rectangle takeDamage(boolean redrawAll) {
+        synchronized (signal) {
+            Rectangle region;
+            if (redrawAll || fullFrame || (damage != null && !keepsContents)) {
+                region = null;
+            } else {
+                region = damage == null ? new Rectangle() : damage;
+            }
+            frameRequested = false;
+            fullFrame = false;
+            damage = null;
+            return region;
+        }
+    }
+
+    /**
+     * Run all queued input in the order it arrived
+     */
+    private void runInput() {
+        Runnable action;
+        while ((action = input.poll()) != null) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error handling input: " + e);
+            }
+        }
+    }
+}
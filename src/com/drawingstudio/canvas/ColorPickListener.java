@@ -0,0 +1,23 @@
+package com.drawingstudio.canvas;
+
+import java.awt.Color;
+import java.awt.Point;
+
+/**
+ * Receives colors sampled by the color picker tool
+ * All methods are called on the AWT event dispatch thread
+ */
+public interface ColorPickListener {
+
+    /**
+     * Called when a color is clicked; the canvas has already made it the current color
+     */
+    void colorPicked(Color color);
+
+    /**
+     * Called as the pointer moves over the canvas, to preview the color under it
+     * @param color Color under the pointer, or null once the pointer leaves the drawing
+     * @param location Pointer position on the canvas
+     */
+    void colorHovered(Color color, Point location);
+}
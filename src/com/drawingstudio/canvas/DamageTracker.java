@@ -0,0 +1,66 @@
+package com.drawingstudio.canvas;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * Accumulates the parts of the canvas that changed since the last paint
+ * Lets the canvas repaint only the damaged area instead of the whole frame
+ */
+public class DamageTracker {
+    private Rectangle region;
+
+    /**
+     * Add a stroke segment, inflated by the stroke width
+     */
+    public void addSegment(Point start, Point end, int strokeWidth) {
+        add(segmentBounds(start, end, strokeWidth));
+    }
+
+    /**
+     * Get the area a stroke segment can touch, including round caps and antialiasing
+     */
+    public static Rectangle segmentBounds(Point start, Point end, int strokeWidth) {
+        int pad = strokeWidth / 2 + 2;
+        int x = Math.min(start.x, end.x) - pad;
+        int y = Math.min(start.y, end.y) - pad;
+        int width = Math.abs(end.x - start.x) + pad * 2;
+        int height = Math.abs(end.y - start.y) + pad * 2;
+        return new Rectangle(x, y, width, height);
+    }
+
+    /**
+     * Add a rectangle to the damaged region
+     */
+    public void add(Rectangle r) {
+        if (r == null || r.isEmpty()) {
+            return;
+        }
+        if (region == null) {
+            region = new Rectangle(r);
+        } else {
+            region.add(r);
+        }
+    }
+
+    /**
+     * Check if anything has been damaged since the last clear
+     */
+    public boolean isEmpty() {
+        return region == null;
+    }
+
+    /**
+     * Get a copy of the accumulated region, or null if nothing is damaged
+     */
+    public Rectangle getRegion() {
+        return region == null ? null : new Rectangle(region);
+    }
+
+    /**
+     * Forget the accumulated region once it has been painted
+     */
+    public void clear() {
+        region = null;
+    }
+}
@@ -1,181 +1,472 @@
 package com.drawingstudio.canvas;
 
+import com.drawingstudio.shapes.FreehandShape;
 import com.drawingstudio.shapes.ShapeBase;
+import com.drawingstudio.shapes.ShapeIndex;
+import com.drawingstudio.shapes.StrokeCache;
+import com.drawingstudio.manager.AddShapeOperation;
+import com.drawingstudio.manager.ClearOperation;
+import com.drawingstudio.manager.DocumentFormat;
+import com.drawingstudio.manager.DocumentLayer;
+import com.drawingstudio.manager.DrawingDocument;
+import com.drawingstudio.manager.EraseShapeOperation;
+import com.drawingstudio.manager.FillOperation;
 import com.drawingstudio.manager.HistoryManager;
+import com.drawingstudio.manager.HistoryOperation;
+import com.drawingstudio.manager.ImageLoadListener;
+import com.drawingstudio.manager.LayerSnapshot;
+import com.drawingstudio.manager.LoadOperation;
+import com.drawingstudio.manager.ProgressiveImageLoader;
+import com.drawingstudio.manager.RasterTiles;
+import com.drawingstudio.manager.SaveListener;
 import com.drawingstudio.manager.FileManager;
+import com.drawingstudio.render.BackBuffer;
+import com.drawingstudio.render.TiledSurface;
 import com.drawingstudio.utils.ShapeUtils;
+import com.drawingstudio.utils.FlightEvents;
+import com.drawingstudio.utils.FloodFill;
+import com.drawingstudio.utils.PerformanceMonitor;
 import com.drawingstudio.utils.PointUtils;
+import com.drawingstudio.utils.StrokeSimplifier;
 import java.awt.*;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import javax.swing.Timer;
 
 /**
  * AWT-based drawing canvas with double buffering
+ * The drawing is kept in a sparse tiled surface, so the canvas can be far
+ * larger than the screen; place it in a ScrollPane to navigate it
+ *
+ * Drawings are made of layers, each with its own tiles, shapes and undo
+ * history. Editing always happens on the active layer; the layers below and
+ * above it are kept flattened, so extra layers cost nothing per frame.
+ *
+ * Once on screen the canvas draws itself from a render thread through a
+ * BufferStrategy, and mouse input is handed to that thread with submitInput.
+ * With -Ddrawingstudio.render.active=false, or where no buffer strategy can
+ * be created, it falls back to repaint() and paint() on the event thread.
  */
 public class DrawingCanvas extends Canvas {
-    private BufferedImage drawingImage;
-    private BufferedImage offscreenBuffer;
-    private Graphics2D g2d;
+    private static final int DEFAULT_WIDTH = 1000;
+    private static final int DEFAULT_HEIGHT = 700;
+    private static final boolean ACTIVE_RENDERING =
+        Boolean.parseBoolean(System.getProperty("drawingstudio.render.active", "true"));
+    private static final int FRAME_RATE = Integer.getInteger("drawingstudio.render.fps", 60);
+    private static final boolean PREVIEW_ANTIALIAS =
+        Boolean.parseBoolean(System.getProperty("drawingstudio.preview.antialias", "true"));
+    
+    private static final int FILL_TOLERANCE = Integer.getInteger("drawingstudio.fill.tolerance", 32);
+    // Rows of the layer rendered at once while filling
+    private static final int FILL_BAND_HEIGHT = TiledSurface.TILE_SIZE;
+    
+    /** Property change fired whenever the layer stack changes */
+    public static final String LAYERS_PROPERTY = "layers";
+    
+    /** Property change fired with a message for the user, e.g. why a tool cannot be used on the active layer */
+    public static final String MESSAGE_PROPERTY = "message";
+    
+    // Held while the drawing is changed or drawn, so the render thread sees whole changes
+    private final Object sceneLock = new Object();
+    private volatile ActiveRenderer renderer;
+    
+    private TiledSurface surface;
+    private final BackBuffer backBuffer = new BackBuffer(this);
     private Color currentColor = Color.BLACK;
     private int brushSize = 3;
     private String currentTool = "BRUSH";
-    private Object parentApp;
+    private ColorPickListener colorPickListener;
+    private BufferedImage probeImage;
+    
+    // Fill tool: the active layer as shown, read as plain pixels, and the fill over them
+    private final FloodFill floodFill = new FloodFill();
+    private BufferedImage fillSource;
+    private int fillTolerance = FILL_TOLERANCE;
     
     // Drawing state
     private boolean isDrawing = false;
     private Point startPoint, endPoint;
     private Point lastPoint;
+    private Color brushColor;
+    private BasicStroke brushStroke;
     
-    // Managers
+    // Simplifies the brush or eraser stroke in progress as it is drawn
+    private StrokeSimplifier strokeSimplifier;
+    private boolean strokeActive = false;
+    
+    // Managers; the history is the active layer's
     private HistoryManager historyManager;
+    private ProgressiveImageLoader imageLoader;
+    
+    // Set while an image is streaming in; editing is paused until it finishes
+    private boolean loading = false;
     
-    // Shape preview
-    private boolean showPreview = false;
+    // Rubber-band outline of the shape being dragged out, null when there is none
+    private ShapeBase previewShape;
     
-    // Shape storage
+    // Region changed by brush strokes since the last paint
+    private DamageTracker damageTracker;
+    
+    // Cached raster of the committed shapes
+    private ShapeLayerCache shapeLayerCache;
+    
+    // Layers, and the cached flattening of those below and above the active one
+    private LayerStack layers;
+    private final LayerCompositeCache layerCache = new LayerCompositeCache();
+    
+    // Shape storage of the active layer
     private List<ShapeBase> shapes;
+    private ShapeIndex shapeIndex;
+    
+    // Performance overlay, refreshed on a timer while shown
+    private final PerformanceHud hud = new PerformanceHud();
+    private Timer hudTimer;
     
-    public DrawingCanvas(Object parent) {
-        this.parentApp = parent;
+    /**
+     * Create a canvas sized by the drawingstudio.canvas.width and
+     * drawingstudio.canvas.height system properties, 1000x700 by default
+     * @param colorPickListener Notified of colors sampled with the color picker, may be null
+     */
+    public DrawingCanvas(ColorPickListener colorPickListener) {
+        this(colorPickListener, Integer.getInteger("drawingstudio.canvas.width", DEFAULT_WIDTH),
+            Integer.getInteger("drawingstudio.canvas.height", DEFAULT_HEIGHT));
+    }
+    
+    public DrawingCanvas(ColorPickListener colorPickListener, int width, int height) {
+        this.colorPickListener = colorPickListener;
         setBackground(Color.WHITE);
         
-        historyManager = new HistoryManager();
-        shapes = new ArrayList<>();
+        imageLoader = new ProgressiveImageLoader();
+        damageTracker = new DamageTracker();
+        shapeLayerCache = new ShapeLayerCache();
+        strokeSimplifier = createStrokeSimplifier();
         
-        initializeDrawingSurface();
+        initializeDrawingSurface(width, height);
+        setHudVisible(hud.isVisible());
     }
     
-    private void initializeDrawingSurface() {
-        int width = 1000;
-        int height = 700;
-        
-        drawingImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        offscreenBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        
-        g2d = drawingImage.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, width, height);
-        g2d.setColor(currentColor);
-        g2d.setStroke(new BasicStroke(brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+    private void initializeDrawingSurface(int width, int height) {
+        // Tiles are allocated as they are painted; a blank surface uses almost no memory
+        if (layers != null) {
+            layers.dispose();
+        }
+        layers = new LayerStack(width, height);
+        bindActiveLayer();
         
         setSize(width, height);
     }
     
+    /**
+     * Point the editing state at the active layer's tiles, shapes and history
+     */
+    private void bindActiveLayer() {
+        Layer active = layers.getActive();
+        surface = active.getSurface();
+        shapes = active.getShapes();
+        shapeIndex = active.getShapeIndex();
+        historyManager = active.getHistory();
+        shapeLayerCache.invalidate();
+        layerCache.invalidate();
+    }
+    
     @Override
     public void update(Graphics g) {
         paint(g);
     }
-
+    
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        // Every repaint() variant ends up here
+        ActiveRenderer active = renderer;
+        if (active != null) {
+            active.requestFrame(new Rectangle(x, y, width, height));
+        } else {
+            super.repaint(tm, x, y, width, height);
+        }
+    }
+    
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        shapeLayerCache.setGraphicsConfiguration(getGraphicsConfiguration());
+        layerCache.setGraphicsConfiguration(getGraphicsConfiguration());
+        if (ACTIVE_RENDERING && renderer == null) {
+            ActiveRenderer active = new ActiveRenderer(this, sceneLock, FRAME_RATE);
+            if (active.start()) {
+                renderer = active;
+            }
+        }
+    }
+    
+    @Override
+    public void removeNotify() {
+        ActiveRenderer active = renderer;
+        if (active != null) {
+            renderer = null;
+            active.stop();
+        }
+        super.removeNotify();
+    }
+    
+    /**
+     * Hand mouse input over to the canvas
+     * With active rendering the action is queued and run on the render thread
+     * just before the next frame; otherwise it runs right away
+     */
+    public void submitInput(Runnable action) {
+        ActiveRenderer active = renderer;
+        if (active != null) {
+            active.submit(action);
+        } else {
+            action.run();
+        }
+    }
+    
+    /**
+     * Check if the canvas is drawn by its render thread rather than by paint()
+     */
+    public boolean isActiveRendering() {
+        return renderer != null;
+    }
+    
     @Override
     public void paint(Graphics g) {
-        // Use double buffering to eliminate flicker
-        Graphics2D bufferG2d = offscreenBuffer.createGraphics();
-        bufferG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        ActiveRenderer active = renderer;
+        if (active != null) {
+            // Exposed after being hidden or scrolled; the render thread redraws it
+            active.requestFrame();
+            return;
+        }
         
-        // Draw the buffered image to offscreen buffer
-        bufferG2d.drawImage(drawingImage, 0, 0, null);
+        long paintStart = System.nanoTime();
+        FlightEvents.Paint event = new FlightEvents.Paint();
+        event.begin();
         
-        // Draw all shapes on top
-        for (ShapeBase shape : shapes) {
-            shape.draw(bufferG2d);
+        // Only recomposite the area AWT asked for (the damaged region on repaint(x, y, w, h)),
+        // and never more than is actually on screen
+        Rectangle visible = getVisibleArea();
+        Rectangle clip = g.getClipBounds();
+        Rectangle region = clip == null ? visible : clip.intersection(visible);
+        damageTracker.clear();
+        if (region.isEmpty()) {
+            return;
         }
         
-        // Draw shape preview
-        if (showPreview && isDrawing && startPoint != null && endPoint != null) {
-            drawPreview(bufferG2d);
+        int x1 = region.x;
+        int y1 = region.y;
+        int x2 = region.x + region.width;
+        int y2 = region.y + region.height;
+        
+        // Use double buffering to eliminate flicker; the buffer only needs to hold the region.
+        // On screen it is a volatile image, drawn again if its contents were lost before the copy
+        do {
+            Graphics2D bufferG2d = backBuffer.createGraphics(visible.width, visible.height);
+            bufferG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            bufferG2d.translate(-x1, -y1);
+            bufferG2d.setClip(region);
+            renderScene(bufferG2d, region, visible);
+            
+            // Dispose buffer graphics and draw final result to screen
+            bufferG2d.dispose();
+            g.drawImage(backBuffer.getImage(), x1, y1, x2, y2, 0, 0, region.width, region.height, null);
+        } while (backBuffer.contentsLost());
+        recordPaint(paintStart, event, region);
+    }
+    
+    /**
+     * Draw a frame into the buffer strategy's back buffer (render thread)
+     * @param region Area to redraw, or null when the back buffer holds nothing
+     *               usable and the whole visible area must be drawn
+     */
+    void renderFrame(Graphics2D g, Rectangle region) {
+        long paintStart = System.nanoTime();
+        FlightEvents.Paint event = new FlightEvents.Paint();
+        event.begin();
+        
+        Rectangle visible = getVisibleArea();
+        Rectangle area = region == null ? visible : region.intersection(visible);
+        damageTracker.clear();
+        if (area.isEmpty()) {
+            return;
         }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setClip(area);
+        renderScene(g, area, visible);
+        recordPaint(paintStart, event, area);
+    }
+    
+    /**
+     * Draw the layers, preview and overlay for a region of the canvas
+     * @param g Graphics in canvas coordinates, clipped to the region
+     */
+    private void renderScene(Graphics2D g, Rectangle region, Rectangle visible) {
+        Layer active = layers.getActive();
         
-        // Dispose buffer graphics and draw final result to screen
-        bufferG2d.dispose();
-        g.drawImage(offscreenBuffer, 0, 0, null);
+        // Draw the flattened layers below, unless the active layer hides them anyway
+        if (!active.isOpaque()) {
+            drawCached(g, layerCache.getBelow(layers, visible), layerCache.getArea(), region);
+        }
+        
+        if (active.isVisible()) {
+            if (active.getOpacity() >= 1f) {
+                drawActiveLayer(g, region, visible);
+            } else {
+                layers.drawWithOpacity(g, region, active.getOpacity(), layerG -> drawActiveLayer(layerG, region, visible));
+            }
+        }
+        
+        // Draw the flattened layers above
+        BufferedImage above = layerCache.getAbove(layers, visible);
+        if (above != null) {
+            drawCached(g, above, layerCache.getArea(), region);
+        }
+        
+        if (hud.isVisible()) {
+            hud.draw(g, visible, renderer != null, shapes.size(), historyManager, shapeLayerCache, strokeSimplifier);
+        }
     }
     
-    private void drawPreview(Graphics2D bufferG2d) {
-        bufferG2d.setColor(currentColor);
-        bufferG2d.setStroke(new BasicStroke(brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+    /**
+     * Draw the active layer's painted tiles, cached shapes and shape preview
+     */
+    private void drawActiveLayer(Graphics2D g, Rectangle region, Rectangle visible) {
+        // Draw the painted tiles
+        surface.drawTo(g, region);
         
-        switch (currentTool) {
-            case "LINE":
-                bufferG2d.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
-                break;
-            case "RECTANGLE":
-                int x = Math.min(startPoint.x, endPoint.x);
-                int y = Math.min(startPoint.y, endPoint.y);
-                int width = Math.abs(endPoint.x - startPoint.x);
-                int height = Math.abs(endPoint.y - startPoint.y);
-                bufferG2d.drawRect(x, y, width, height);
-                break;
-            case "OVAL":
-                x = Math.min(startPoint.x, endPoint.x);
-                y = Math.min(startPoint.y, endPoint.y);
-                width = Math.abs(endPoint.x - startPoint.x);
-                height = Math.abs(endPoint.y - startPoint.y);
-                bufferG2d.drawOval(x, y, width, height);
-                break;
-            case "TRIANGLE":
-                int[] xPoints = {startPoint.x, endPoint.x, startPoint.x + (startPoint.x - endPoint.x)};
-                int[] yPoints = {startPoint.y, endPoint.y, endPoint.y};
-                bufferG2d.drawPolygon(xPoints, yPoints, 3);
-                break;
-            case "DIAMOND":
-                int centerX = (startPoint.x + endPoint.x) / 2;
-                int centerY = (startPoint.y + endPoint.y) / 2;
-                int halfWidth = Math.abs(endPoint.x - startPoint.x) / 2;
-                int halfHeight = Math.abs(endPoint.y - startPoint.y) / 2;
-                int[] diamondX = {centerX, centerX + halfWidth, centerX, centerX - halfWidth};
-                int[] diamondY = {centerY - halfHeight, centerY, centerY + halfHeight, centerY};
-                bufferG2d.drawPolygon(diamondX, diamondY, 4);
-                break;
+        // Draw the cached shapes layer on top
+        drawCached(g, shapeLayerCache.getLayer(shapeIndex, visible), shapeLayerCache.getArea(), region);
+        
+        // Draw shape preview
+        if (previewShape != null && previewShape.getBounds().intersects(region)) {
+            drawPreview(g);
+        }
+    }
+    
+    /**
+     * Copy a region out of a cached image whose top-left pixel sits at the corner of area
+     */
+    private static void drawCached(Graphics2D g, BufferedImage image, Rectangle area, Rectangle region) {
+        int x1 = region.x;
+        int y1 = region.y;
+        int x2 = region.x + region.width;
+        int y2 = region.y + region.height;
+        g.drawImage(image, x1, y1, x2, y2,
+            x1 - area.x, y1 - area.y, x2 - area.x, y2 - area.y, null);
+    }
+    
+    private void recordPaint(long paintStart, FlightEvents.Paint event, Rectangle region) {
+        PerformanceMonitor.getPaintTimes().recordSince(paintStart);
+        event.end();
+        if (event.shouldCommit()) {
+            event.shapeCount = shapes.size();
+            event.dirtyArea = (long) region.width * region.height;
+            event.regionWidth = region.width;
+            event.regionHeight = region.height;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Get the part of the drawing currently on screen
+     */
+    private Rectangle getVisibleArea() {
+        Rectangle visible = getSurfaceBounds().intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        Container parent = getParent();
+        if (parent instanceof ScrollPane) {
+            ScrollPane scrollPane = (ScrollPane) parent;
+            visible = visible.intersection(new Rectangle(scrollPane.getScrollPosition(), scrollPane.getViewportSize()));
+        }
+        return visible;
+    }
+    
+    /**
+     * Draw the shape being dragged out the way it will look once committed
+     * With -Ddrawingstudio.preview.antialias=false it is drawn without
+     * antialiasing while dragging, which is cheaper for thick outlines
+     */
+    private void drawPreview(Graphics2D bufferG2d) {
+        if (PREVIEW_ANTIALIAS) {
+            previewShape.draw(bufferG2d);
+        } else {
+            bufferG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            previewShape.draw(bufferG2d);
+            bufferG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         }
     }
     
     @Override
     public Dimension getPreferredSize() {
-        return new Dimension(800, 600);
+        return new Dimension(surface.getWidth(), surface.getHeight());
     }
     
     // Mouse event handlers (called by event handler classes)
     public void handleMousePressed(java.awt.event.MouseEvent e) {
+        if (loading) return;
+        
         isDrawing = true;
         startPoint = e.getPoint();
         lastPoint = e.getPoint();
         
         // Handle eraser for shapes
         if (currentTool.equals("ERASER")) {
-            // Check if clicking on a shape to delete it
-            for (int i = shapes.size() - 1; i >= 0; i--) {
-                if (shapes.get(i).contains(startPoint)) {
-                    saveStateForUndo();
-                    shapes.remove(i);
-                    repaint();
-                    return;
-                }
+            // Check if clicking on a shape to delete it; strokes are erased by painting over them
+            ShapeBase hit = shapeIndex.findTopmost(startPoint, shape -> !(shape instanceof FreehandShape));
+            if (hit != null) {
+                int position = removeShape(hit);
+                recordOperation(new EraseShapeOperation(position));
+                isDrawing = false;
+                repaint();
+                return;
             }
             // If not clicking on shape, use brush eraser
-            saveStateForUndo();
-            setupBrushGraphics();
+            if (surface.isTransparent()) {
+                // Eraser strokes paint white, which would cover every layer below this one
+                isDrawing = false;
+                firePropertyChange(MESSAGE_PROPERTY, null,
+                    "The eraser only deletes shapes on this layer; erasing by painting works on the background");
+                return;
+            }
+            setupBrush();
+            beginStroke(startPoint);
         } else if (currentTool.equals("BRUSH")) {
-            saveStateForUndo();
-            setupBrushGraphics();
+            setupBrush();
+            beginStroke(startPoint);
+        } else if (currentTool.equals("FILL")) {
+            fill(startPoint.x, startPoint.y);
+            isDrawing = false;
         } else if (currentTool.equals("COLOR_PICKER")) {
             // Color picker will be handled in mouseClicked
         }
     }
     
     public void handleMouseDragged(java.awt.event.MouseEvent e) {
-        if (!isDrawing) return;
-        
-        Point currentPoint = e.getPoint();
+        handleMouseDragged(new int[] {e.getX()}, new int[] {e.getY()}, 1);
+    }
+    
+    /**
+     * Handle a batch of drag samples collected during one frame
+     * The batch is drawn as one polyline and repainted once
+     * @param xs X coordinates, oldest first; only read during the call
+     * @param ys Y coordinates
+     * @param count Number of samples in the arrays
+     */
+    public void handleMouseDragged(int[] xs, int[] ys, int count) {
+        if (!isDrawing || count == 0) return;
+        long start = System.nanoTime();
         
         switch (currentTool) {
             case "BRUSH":
             case "ERASER":
-                drawBrushStroke(lastPoint, currentPoint);
-                lastPoint = currentPoint;
-                repaint();
+                drawBrushStroke(xs, ys, count);
+                for (int i = 0; i < count; i++) {
+                    addStrokePoint(xs[i], ys[i]);
+                }
+                lastPoint = new Point(xs[count - 1], ys[count - 1]);
+                repaintDamage();
                 break;
                 
             case "LINE":
@@ -183,171 +474,747 @@ public class DrawingCanvas extends Canvas {
             case "OVAL":
             case "TRIANGLE":
             case "DIAMOND":
-                endPoint = currentPoint;
+                // Only the latest position matters for the preview
+                endPoint = new Point(xs[count - 1], ys[count - 1]);
                 updateShapePreview();
                 break;
         }
+        PerformanceMonitor.getInputTimes().recordSince(start);
     }
     
     public void handleMouseReleased(java.awt.event.MouseEvent e) {
         if (!isDrawing) return;
+        long start = System.nanoTime();
         
         isDrawing = false;
         endPoint = e.getPoint();
         
         // Create shape if it's a shape tool
         if (ShapeUtils.isValidShapeType(currentTool)) {
-            saveStateForUndo();
             ShapeBase shape = ShapeUtils.createShape(currentTool, startPoint, endPoint, currentColor, brushSize);
             if (shape != null) {
                 shapes.add(shape);
+                shapeIndex.add(shape);
+                shapeLayerCache.append(shape);
+                recordOperation(new AddShapeOperation(shape));
+                repaintRegion(shape.getBounds());
             }
+            // Only the preview's area and the new shape's need redrawing
+            clearPreview();
+        } else {
+            if (strokeActive) {
+                commitStroke();
+            }
+            clearPreview();
+            repaint();
         }
-        
-        clearPreview();
-        repaint();
+        PerformanceMonitor.getInputTimes().recordSince(start);
     }
     
     public void handleMouseClicked(java.awt.event.MouseEvent e) {
         if (currentTool.equals("COLOR_PICKER")) {
-            Point p = e.getPoint();
-            if (PointUtils.isWithinBounds(p, drawingImage.getWidth(), drawingImage.getHeight())) {
-                // Get color from the composite view
-                BufferedImage composite = createCompositeImage();
-                int rgb = composite.getRGB(p.x, p.y);
-                Color pickedColor = new Color(rgb);
+            Color pickedColor = probeColor(e.getX(), e.getY(), true);
+            if (pickedColor != null) {
                 currentColor = pickedColor;
-                
-                // Notify parent app
-                try {
-                    java.lang.reflect.Method method = parentApp.getClass().getMethod("setPickedColor", Color.class);
-                    method.invoke(parentApp, pickedColor);
-                } catch (Exception ex) {
-                    // Ignore
+                if (colorPickListener != null) {
+                    notifyListener(() -> colorPickListener.colorPicked(pickedColor));
                 }
-                
                 repaint();
             }
         }
     }
     
     public void handleMouseMoved(java.awt.event.MouseEvent e) {
-        // Can be used for hover effects in future
+        // Live eyedropper preview; probing is cheap enough to do on every move
+        if (currentTool.equals("COLOR_PICKER") && colorPickListener != null) {
+            Color hovered = probeColor(e.getX(), e.getY(), false);
+            notifyListener(() -> colorPickListener.colorHovered(hovered, e.getPoint()));
+        }
+    }
+    
+    /**
+     * Call the color pick listener on the event dispatch thread, where the UI expects it
+     */
+    private void notifyListener(Runnable callback) {
+        ActiveRenderer active = renderer;
+        if (active != null && active.isRenderThread()) {
+            EventQueue.invokeLater(callback);
+        } else {
+            callback.run();
+        }
+    }
+    
+    /**
+     * Get the color shown at a point of the drawing, shapes and other layers included
+     * Only the shapes covering the point are drawn, into a single pixel,
+     * so the cost does not depend on the size of the drawing
+     * @return The color, or null if the point is outside the drawing
+     */
+    public Color probeColor(int x, int y) {
+        return probeColor(x, y, false);
+    }
+    
+    /**
+     * Probe a pixel, recording whether it was picked or only hovered
+     */
+    private Color probeColor(int x, int y, boolean picked) {
+        if (!PointUtils.isWithinBounds(new Point(x, y), surface.getWidth(), surface.getHeight())) {
+            return null;
+        }
+        FlightEvents.ColorPick event = new FlightEvents.ColorPick();
+        event.begin();
+        Rectangle pixel = new Rectangle(x, y, 1, 1);
+        List<ShapeBase> covering = shapeIndex.query(pixel);
+        int rgb;
+        boolean singleLayer = layers.isSingleLayer();
+        if (covering.isEmpty() && singleLayer) {
+            rgb = surface.getRGB(x, y);
+        } else {
+            if (probeImage == null) {
+                probeImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+            }
+            Graphics2D g = probeImage.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(-x, -y);
+            if (singleLayer) {
+                probeImage.setRGB(0, 0, surface.getRGB(x, y));
+                for (ShapeBase shape : covering) {
+                    shape.draw(g);
+                }
+            } else {
+                // Every layer through the pixel, over white paper
+                g.setColor(Color.WHITE);
+                g.fillRect(x, y, 1, 1);
+                layers.composite(g, pixel, 0, layers.size());
+            }
+            g.dispose();
+            rgb = probeImage.getRGB(0, 0);
+        }
+        
+        event.end();
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.rgb = rgb & 0xFFFFFF;
+            event.shapesDrawn = covering.size();
+            event.picked = picked;
+            event.commit();
+        }
+        return new Color(rgb);
+    }
+    
+    /**
+     * Fill the area around a point that shows the same color on the active layer
+     * The layer's tiles and shapes both bound the fill, which goes into the
+     * tiles, under the shapes. The whole layer is filled, wherever it is
+     * scrolled, but it is rendered a band of rows at a time so memory stays
+     * bounded however large the drawing. Colors within the fill tolerance
+     * of the clicked one count as the same.
+     */
+    private void fill(int x, int y) {
+        Rectangle bounds = getSurfaceBounds();
+        if (!bounds.contains(x, y)) {
+            return;
+        }
+        if (layers.getActive().getKind() != Layer.Kind.RASTER) {
+            firePropertyChange(MESSAGE_PROPERTY, null, "Only raster layers can be filled");
+            return;
+        }
+        FlightEvents.Fill event = new FlightEvents.Fill();
+        event.begin();
+        
+        int rgb = currentColor.getRGB() & 0xFFFFFF;
+        int count = floodFill.fill(
+            (bandY, rows) -> renderFillSource(new Rectangle(0, bandY, bounds.width, rows)),
+            bounds.width, bounds.height, FILL_BAND_HEIGHT, x, y, fillTolerance);
+        
+        FillOperation operation = new FillOperation(floodFill.getSpans(), count, rgb);
+        Rectangle changed = operation.apply(surface, shapes);
+        historyManager.markDirty(changed);
+        recordOperation(operation);
+        repaintRegion(changed);
+        
+        event.end();
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.tolerance = fillTolerance;
+            event.spanCount = count;
+            event.pixelCount = floodFill.getPixelCount();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Draw an area of the active layer into the fill source image
+     * @return The image's pixels, premultiplied ARGB, row by row; those of
+     *         the area come first, and any rows after them are left over
+     */
+    private int[] renderFillSource(Rectangle area) {
+        if (fillSource == null || fillSource.getWidth() != area.width || fillSource.getHeight() < area.height) {
+            fillSource = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        Graphics2D g = fillSource.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, area.width, area.height);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(-area.x, -area.y);
+        layers.getActive().drawTo(g, area);
+        g.dispose();
+        // Read directly; the image is never drawn, so losing its acceleration costs nothing
+        return ((DataBufferInt) fillSource.getRaster().getDataBuffer()).getData();
     }
     
     // Drawing methods
-    private void setupBrushGraphics() {
-        g2d.setColor(currentTool.equals("ERASER") ? Color.WHITE : currentColor);
-        g2d.setStroke(new BasicStroke(brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+    private void setupBrush() {
+        brushColor = currentTool.equals("ERASER") ? Color.WHITE : currentColor;
+        brushStroke = StrokeCache.get(brushSize);
     }
     
-    private void drawBrushStroke(Point start, Point end) {
-        g2d.drawLine(start.x, start.y, end.x, end.y);
+    /**
+     * Draw new stroke samples, continuing from the last point
+     */
+    private void drawBrushStroke(int[] xs, int[] ys, int count) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, count + 1);
+        path.moveTo(lastPoint.x, lastPoint.y);
+        int minX = lastPoint.x, minY = lastPoint.y;
+        int maxX = lastPoint.x, maxY = lastPoint.y;
+        for (int i = 0; i < count; i++) {
+            path.lineTo(xs[i], ys[i]);
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        // The box around every sample, padded the way a single segment across it would be
+        damageTracker.addSegment(new Point(minX, minY), new Point(maxX, maxY), brushSize);
+        
+        // Shown on the shapes layer until the stroke is committed as a shape
+        shapeLayerCache.appendStroke(path, brushColor, brushStroke);
+    }
+    
+    private void beginStroke(Point p) {
+        strokeSimplifier.begin(p.x, p.y);
+        strokeActive = true;
+    }
+    
+    private void addStrokePoint(int x, int y) {
+        strokeSimplifier.add(x, y);
+    }
+    
+    /**
+     * Commit the finished brush or eraser stroke as a freehand shape
+     * Only the points kept by the simplifier are stored. Eraser strokes are
+     * white strokes on top of everything below them.
+     */
+    private void commitStroke() {
+        FlightEvents.StrokeCommit event = new FlightEvents.StrokeCommit();
+        event.begin();
+        long samplesBefore = strokeSimplifier.getTotalInput();
+        strokeSimplifier.finish();
+        strokeActive = false;
+        shapeLayerCache.endStroke();
+        FreehandShape stroke = null;
+        if (strokeSimplifier.getPointCount() > 1) {
+            stroke = new FreehandShape(strokeSimplifier.getX(), strokeSimplifier.getY(),
+                strokeSimplifier.getPointCount(), brushColor, brushSize, strokeSimplifier.getSmoothing());
+            shapes.add(stroke);
+            shapeIndex.add(stroke);
+            shapeLayerCache.repair(shapeIndex, stroke.getBounds());
+            recordOperation(new AddShapeOperation(stroke));
+        }
+        
+        event.end();
+        if (event.shouldCommit()) {
+            event.sampleCount = strokeSimplifier.getTotalInput() - samplesBefore;
+            event.pointCount = strokeSimplifier.getPointCount();
+            event.encodedBytes = stroke == null ? 0 : stroke.getEncodedPoints().length;
+            event.shapeCount = shapes.size();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Create the stroke simplifier from the drawingstudio.stroke.tolerance (pixels,
+     * default 1.0, 0 to keep every sample) and drawingstudio.stroke.smoothing
+     * (none, catmull_rom or quadratic) system properties
+     */
+    private static StrokeSimplifier createStrokeSimplifier() {
+        double tolerance = 1.0;
+        FreehandShape.Smoothing smoothing = FreehandShape.Smoothing.NONE;
+        try {
+            tolerance = Double.parseDouble(System.getProperty("drawingstudio.stroke.tolerance", "1.0"));
+            smoothing = FreehandShape.Smoothing.valueOf(
+                System.getProperty("drawingstudio.stroke.smoothing", "none").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid stroke setting, using defaults: " + e.getMessage());
+        }
+        return new StrokeSimplifier(tolerance, smoothing);
+    }
+    
+    /**
+     * Repaint only the region damaged since the last paint
+     */
+    private void repaintDamage() {
+        Rectangle region = damageTracker.getRegion();
+        if (region != null) {
+            repaint(region.x, region.y, region.width, region.height);
+        }
+    }
+    
+    // Shape list maintenance
+    private int removeShape(ShapeBase shape) {
+        int position = shapeIndex.positionOf(shapes, shape);
+        if (position >= 0) {
+            shapes.remove(position);
+        }
+        shapeIndex.remove(shape);
+        shapeLayerCache.repair(shapeIndex, shape.getBounds());
+        return position;
     }
     
     // Preview methods
+    
+    /**
+     * Move the preview to the current drag position
+     * Only the area the outline left and the area it moved to are redrawn, from
+     * the cached tiles and shape layer, so the cost does not grow with the drawing
+     */
     private void updateShapePreview() {
-        showPreview = true;
-        repaint();
+        Rectangle damaged = previewShape == null ? null : previewShape.getBounds();
+        previewShape = ShapeUtils.createShape(currentTool, startPoint, endPoint, currentColor, brushSize);
+        if (previewShape != null) {
+            damaged = damaged == null ? previewShape.getBounds() : damaged.union(previewShape.getBounds());
+        }
+        if (damaged != null) {
+            repaintRegion(damaged);
+        }
     }
     
     private void clearPreview() {
-        showPreview = false;
+        if (previewShape != null) {
+            repaintRegion(previewShape.getBounds());
+            previewShape = null;
+        }
+    }
+    
+    private void repaintRegion(Rectangle region) {
+        repaint(region.x, region.y, region.width, region.height);
     }
     
     // History management
-    private void saveStateForUndo() {
-        historyManager.saveState(drawingImage, shapes);
+    private void recordOperation(HistoryOperation operation) {
+        historyManager.record(operation, surface, shapes);
     }
     
     public void undo() {
-        HistoryManager.CanvasState lastState = historyManager.undo(drawingImage, shapes);
-        if (lastState != null) {
-            restoreState(lastState);
+        synchronized (sceneLock) {
+            if (!loading && historyManager.undo(surface, shapes)) {
+                restoreState();
+            }
         }
     }
     
     public void redo() {
-        HistoryManager.CanvasState nextState = historyManager.redo(drawingImage, shapes);
-        if (nextState != null) {
-            restoreState(nextState);
+        synchronized (sceneLock) {
+            if (!loading && historyManager.redo(surface, shapes)) {
+                restoreState();
+            }
         }
     }
     
-    private void restoreState(HistoryManager.CanvasState state) {
-        g2d.dispose();
-        drawingImage = new BufferedImage(state.getImage().getWidth(), state.getImage().getHeight(), BufferedImage.TYPE_INT_RGB);
-        g2d = drawingImage.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.drawImage(state.getImage(), 0, 0, null);
-        
-        shapes.clear();
-        shapes.addAll(state.getShapes());
+    private void restoreState() {
+        // The history manager has already rolled the surface and shapes to the restored state
+        shapeIndex.rebuild(shapes);
+        shapeLayerCache.invalidate();
         
         repaint();
     }
     
     // Canvas management
     public void clearCanvas() {
-        saveStateForUndo();
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, drawingImage.getWidth(), drawingImage.getHeight());
-        g2d.setColor(currentColor);
-        shapes.clear();
-        repaint();
+        synchronized (sceneLock) {
+            if (loading) return;
+            
+            surface.clear();
+            historyManager.markDirty(getSurfaceBounds());
+            shapes.clear();
+            shapeIndex.clear();
+            shapeLayerCache.invalidate();
+            recordOperation(new ClearOperation());
+            repaint();
+        }
     }
     
     public void saveToFile(File file) {
-        FileManager.saveToFile(file, drawingImage, shapes);
+        synchronized (sceneLock) {
+            FileManager.saveToFile(file, snapshotForSave());
+        }
+    }
+    
+    /**
+     * Save without blocking the UI
+     * Takes a tile snapshot of each layer (copying only tiles changed since the
+     * last snapshot) and composites and encodes them on a background thread
+     */
+    public void saveToFileAsync(File file, SaveListener listener) {
+        synchronized (sceneLock) {
+            FileManager.saveToFileAsync(file, snapshotForSave(), listener);
+        }
+    }
+    
+    /**
+     * Snapshot every layer to save, bottom first
+     * Each layer's history keeps its last snapshot, so only tiles drawn on since then are copied
+     */
+    private List<LayerSnapshot> snapshotForSave() {
+        List<LayerSnapshot> snapshot = new ArrayList<>();
+        for (Layer layer : layers.getLayers()) {
+            RasterTiles raster = layer.getHistory().snapshotSurface(layer.getSurface());
+            snapshot.add(new LayerSnapshot(layer.getName(), layer.getKind() == Layer.Kind.VECTOR,
+                layer.isVisible(), layer.getOpacity(), raster, layer.getShapes()));
+        }
+        return snapshot;
     }
     
     public void loadFromFile(File file) {
-        BufferedImage loadedImage = FileManager.loadFromFile(file);
-        if (loadedImage != null) {
-            saveStateForUndo();
+        synchronized (sceneLock) {
+            startLoad(file);
+        }
+    }
+    
+    /**
+     * Start loading a file; the loader calls back on the event dispatch thread,
+     * so each callback takes the scene lock again
+     */
+    private void startLoad(File file) {
+        // A new load replaces one still streaming in
+        imageLoader.cancel();
+        loading = false;
+        
+        if (DocumentFormat.hasNativeHeader(file)) {
+            loadDocument(file);
+            return;
+        }
+        
+        // Stream in only the part of the image that fits on the canvas
+        loading = true;
+        imageLoader.load(file, getSurfaceBounds(), getVisibleArea(), new ImageLoadListener() {
+            private boolean started = false;
             
-            // Clear current drawing
-            g2d.setColor(Color.WHITE);
-            g2d.fillRect(0, 0, drawingImage.getWidth(), drawingImage.getHeight());
-            shapes.clear();
+            @Override
+            public void loadStarted(File loadedFile, Rectangle region) {
+                // Clear current drawing once the file is known to be readable
+                synchronized (sceneLock) {
+                    started = true;
+                    resetLayers();
+                    surface.clear();
+                    historyManager.markDirty(getSurfaceBounds());
+                    shapes.clear();
+                    shapeIndex.clear();
+                    shapeLayerCache.invalidate();
+                    repaint();
+                }
+            }
             
-            // Draw loaded image
-            g2d.drawImage(loadedImage, 0, 0, null);
-            g2d.setColor(currentColor);
+            @Override
+            public void previewLoaded(BufferedImage preview, Rectangle region) {
+                synchronized (sceneLock) {
+                    surface.draw(region, g -> g.drawImage(preview, region.x, region.y, region.width, region.height, null));
+                    regionChanged(region);
+                }
+            }
             
-            repaint();
+            @Override
+            public void regionLoaded(BufferedImage pixels, Rectangle region) {
+                // Paint over white, not over the preview, in case the image has transparency
+                synchronized (sceneLock) {
+                    surface.draw(region, g -> {
+                        g.setColor(Color.WHITE);
+                        g.fillRect(region.x, region.y, region.width, region.height);
+                        g.drawImage(pixels, region.x, region.y, null);
+                    });
+                    regionChanged(region);
+                }
+            }
+            
+            @Override
+            public void loadCompleted(File loadedFile, long elapsedMillis) {
+                PerformanceMonitor.recordLoad(elapsedMillis);
+                System.out.println("Image loaded from: " + loadedFile.getAbsolutePath() + " in " + elapsedMillis + " ms");
+                synchronized (sceneLock) {
+                    loading = false;
+                    recordOperation(new LoadOperation());
+                }
+            }
+            
+            @Override
+            public void loadFailed(File loadedFile, Exception error) {
+                synchronized (sceneLock) {
+                    loading = false;
+                    if (started) {
+                        // Keep the partly loaded image as an undoable load so history stays consistent
+                        recordOperation(new LoadOperation());
+                    }
+                }
+            }
+            
+            private void regionChanged(Rectangle region) {
+                historyManager.markDirty(region);
+                repaint(region.x, region.y, region.width, region.height);
+            }
+        });
+    }
+    
+    /**
+     * Open a native document, restoring its layers and shapes as editable objects
+     * The background is loaded as an undoable operation; layers above it start
+     * with a history of their own
+     */
+    private void loadDocument(File file) {
+        long start = System.nanoTime();
+        DrawingDocument document = FileManager.loadDocument(file);
+        if (document == null) {
+            return;
+        }
+        
+        // Decode every layer's tiles and shapes to the side first, so a corrupt file leaves the drawing as it was
+        List<DocumentLayer> documentLayers = document.getLayers();
+        List<TiledSurface> decodedSurfaces = new ArrayList<>();
+        List<List<ShapeBase>> decodedShapes = new ArrayList<>();
+        try {
+            for (DocumentLayer source : documentLayers) {
+                TiledSurface decoded = new TiledSurface(document.getWidth(), document.getHeight(), source.isTransparent());
+                source.renderRasterInto(decoded);
+                decodedSurfaces.add(decoded);
+                decodedShapes.add(new ArrayList<>(source.getShapes()));
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error loading file: " + e.getMessage());
+            return;
+        }
+        
+        // Replace the current drawing, adopting the document's size if it differs
+        boolean resized = document.getWidth() != surface.getWidth() || document.getHeight() != surface.getHeight();
+        if (resized) {
+            initializeDrawingSurface(document.getWidth(), document.getHeight());
+            invalidate();
+            if (getParent() != null) {
+                getParent().validate();
+            }
+        } else {
+            resetLayers();
+        }
+        
+        DocumentLayer bottom = documentLayers.get(0);
+        Layer background = layers.get(0);
+        background.setName(bottom.getName());
+        background.setVisible(bottom.isVisible());
+        background.setOpacity(bottom.getOpacity());
+        surface.replaceWith(decodedSurfaces.get(0));
+        historyManager.markDirty(getSurfaceBounds());
+        shapes.clear();
+        shapes.addAll(decodedShapes.get(0));
+        shapeIndex.rebuild(shapes);
+        shapeLayerCache.invalidate();
+        if (resized) {
+            // Earlier history has a different size and cannot be replayed onto this surface
+            historyManager.reset(surface, shapes);
+        } else {
+            recordOperation(new LoadOperation());
+        }
+        
+        for (int i = 1; i < documentLayers.size(); i++) {
+            DocumentLayer source = documentLayers.get(i);
+            Layer layer = layers.add(source.isVector() ? Layer.Kind.VECTOR : Layer.Kind.RASTER);
+            layer.setName(source.getName());
+            layer.setVisible(source.isVisible());
+            layer.setOpacity(source.getOpacity());
+            layer.getSurface().replaceWith(decodedSurfaces.get(i));
+            layer.getShapes().addAll(decodedShapes.get(i));
+            layer.getShapeIndex().rebuild(layer.getShapes());
+            layer.getHistory().reset(layer.getSurface(), layer.getShapes());
         }
+        layers.setActive(0);
+        bindActiveLayer();
+        firePropertyChange(LAYERS_PROPERTY, null, layers);
+        
+        PerformanceMonitor.recordLoad((System.nanoTime() - start) / 1_000_000);
+        repaint();
+    }
+    
+    private Rectangle getSurfaceBounds() {
+        return surface.getBounds();
+    }
+    
+    /**
+     * Go back to the background layer alone before a file replaces the drawing
+     * The load is recorded in the background's history, so it can be undone
+     */
+    private void resetLayers() {
+        layers.reset();
+        bindActiveLayer();
+        firePropertyChange(LAYERS_PROPERTY, null, layers);
+    }
+    
+    // Layer management
+    
+    /**
+     * Add an empty layer above the active one and start editing it
+     */
+    public void addLayer(Layer.Kind kind) {
+        changeLayers(() -> layers.add(kind));
+    }
+    
+    /**
+     * Remove the active layer, along with its history; the background cannot be removed
+     */
+    public void removeLayer() {
+        changeLayers(layers::removeActive);
+    }
+    
+    /**
+     * Start editing another layer
+     * @param index Position in the stack, 0 being the background
+     */
+    public void selectLayer(int index) {
+        changeLayers(() -> layers.setActive(index));
+    }
+    
+    /**
+     * Move the active layer up (positive offset) or down the stack
+     */
+    public void moveLayer(int offset) {
+        changeLayers(() -> layers.moveActive(offset));
     }
     
-    private BufferedImage createCompositeImage() {
-        BufferedImage composite = new BufferedImage(drawingImage.getWidth(), drawingImage.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = composite.createGraphics();
-        g.drawImage(drawingImage, 0, 0, null);
-        for (ShapeBase shape : shapes) {
-            shape.draw(g);
+    public void setLayerVisible(boolean visible) {
+        changeLayers(() -> layers.getActive().setVisible(visible));
+    }
+    
+    public void setLayerOpacity(float opacity) {
+        changeLayers(() -> layers.getActive().setOpacity(opacity));
+    }
+    
+    /**
+     * Change the layer stack, first finishing any stroke or shape in progress
+     * on the layer it was started on
+     */
+    private void changeLayers(Runnable change) {
+        synchronized (sceneLock) {
+            if (loading) return;
+            
+            if (strokeActive) {
+                commitStroke();
+            }
+            isDrawing = false;
+            clearPreview();
+            change.run();
+            bindActiveLayer();
         }
-        g.dispose();
-        return composite;
+        firePropertyChange(LAYERS_PROPERTY, null, layers);
+        repaint();
+    }
+    
+    /**
+     * Get the layers of the drawing, bottom first
+     * Change them through the canvas so it can update its caches; listen for
+     * LAYERS_PROPERTY changes to hear about them, including loads replacing them
+     */
+    public LayerStack getLayers() {
+        return layers;
+    }
+    
+    /**
+     * Show or hide the performance overlay
+     * While shown it is redrawn twice a second, even when nothing else changes
+     */
+    public void setHudVisible(boolean visible) {
+        synchronized (sceneLock) {
+            hud.setVisible(visible);
+        }
+        if (visible && hudTimer == null) {
+            hudTimer = new Timer(500, e -> {
+                Rectangle bounds = hud.getBounds(getVisibleArea());
+                repaint(bounds.x, bounds.y, bounds.width, bounds.height);
+            });
+            hudTimer.start();
+        } else if (!visible && hudTimer != null) {
+            hudTimer.stop();
+            hudTimer = null;
+        }
+        repaint();
+    }
+    
+    public boolean isHudVisible() {
+        return hud.isVisible();
+    }
+    
+    /**
+     * Get the sparse tiled surface holding the active layer's painted pixels
+     */
+    public TiledSurface getSurface() {
+        return surface;
+    }
+    
+    /**
+     * Get the spatial index over the active layer's committed shapes
+     * Kept in sync with the shape list; use it for hit-testing and region queries
+     */
+    public ShapeIndex getShapeIndex() {
+        return shapeIndex;
+    }
+    
+    /**
+     * Get the stroke simplifier, e.g. to change its settings or read the achieved reduction
+     */
+    public StrokeSimplifier getStrokeSimplifier() {
+        return strokeSimplifier;
+    }
+    
+    /**
+     * Get the shapes layer cache, e.g. to read its hit and rebuild counters
+     */
+    public ShapeLayerCache getShapeLayerCache() {
+        return shapeLayerCache;
+    }
+    
+    /**
+     * Get the cache of flattened layers around the active one, e.g. to read its counters
+     */
+    public LayerCompositeCache getLayerCompositeCache() {
+        return layerCache;
     }
     
     // Setters
     public void setCurrentColor(Color color) {
-        this.currentColor = color;
-        if (g2d != null) {
-            g2d.setColor(color);
+        synchronized (sceneLock) {
+            this.currentColor = color;
         }
     }
     
     public void setBrushSize(int size) {
-        this.brushSize = size;
-        if (g2d != null) {
-            g2d.setStroke(new BasicStroke(size, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        synchronized (sceneLock) {
+            this.brushSize = size;
+        }
+    }
+    
+    /**
+     * Set how far, in any color channel, a pixel may be from the clicked one and still be filled
+     * Defaults to the drawingstudio.fill.tolerance system property, or 32
+     */
+    public void setFillTolerance(int tolerance) {
+        synchronized (sceneLock) {
+            this.fillTolerance = Math.max(0, Math.min(255, tolerance));
         }
     }
     
     public void setCurrentTool(String tool) {
-        this.currentTool = tool;
-        clearPreview();
+        synchronized (sceneLock) {
+            this.currentTool = tool;
+            clearPreview();
+        }
         repaint();
     }
 }
@@ -0,0 +1,86 @@
+package com.drawingstudio.canvas;
+
+import com.drawingstudio.manager.HistoryManager;
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import com.drawingstudio.shapes.ShapeIndex;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One layer of a drawing: painted pixels, shapes drawn on top of them, and
+ * the undo history of both
+ *
+ * A raster layer holds pixels, e.g. a loaded image, as well as shapes; a
+ * vector layer is a group of shapes only and never allocates pixel tiles.
+ * Every layer but the bottom one is transparent where nothing was drawn.
+ */
+public class Layer {
+    public enum Kind { RASTER, VECTOR }
+
+    private final Kind kind;
+    private String name;
+    private boolean visible = true;
+    private float opacity = 1f;
+
+    private final TiledSurface surface;
+    private final List<ShapeBase> shapes = new ArrayList<>();
+    private final ShapeIndex shapeIndex;
+    private final HistoryManager history = new HistoryManager();
+
+    /**
+     * @param transparent False only for the bottom layer, which starts white
+     */
+    public Layer(String name, Kind kind, int width, int height, boolean transparent) {
+        this.name = name;
+        this.kind = kind;
+        this.surface = new TiledSurface(width, height, transparent);
+        this.shapeIndex = new ShapeIndex(surface.getBounds());
+        history.reset(surface, shapes);
+    }
+
+    /**
+     * Draw the layer's pixels and shapes in a region at full opacity
+     * @param g Graphics in drawing coordinates
+     */
+    public void drawTo(Graphics2D g, Rectangle region) {
+        if (kind == Kind.RASTER) {
+            surface.drawTo(g, region);
+        }
+        for (ShapeBase shape : shapeIndex.query(region)) {
+            shape.draw(g);
+        }
+    }
+
+    /**
+     * Check if the layer shows as it is drawn, with nothing of the layers below showing through it
+     */
+    public boolean isOpaque() {
+        return visible && opacity >= 1f && !surface.isTransparent();
+    }
+
+    // Getters
+    public Kind getKind() { return kind; }
+    public String getName() { return name; }
+    public boolean isVisible() { return visible; }
+    public float getOpacity() { return opacity; }
+    public TiledSurface getSurface() { return surface; }
+    public List<ShapeBase> getShapes() { return shapes; }
+    public ShapeIndex getShapeIndex() { return shapeIndex; }
+    public HistoryManager getHistory() { return history; }
+
+    // Setters
+    public void setName(String name) { this.name = name; }
+    public void setVisible(boolean visible) { this.visible = visible; }
+
+    public void setOpacity(float opacity) {
+        this.opacity = Math.max(0f, Math.min(1f, opacity));
+    }
+
+    @Override
+    public String toString() {
+        return name + (visible ? "" : " (hidden)") + (opacity < 1f ? " " + Math.round(opacity * 100) + "%" : "");
+    }
+}
@@ -0,0 +1,143 @@
+package com.drawingstudio.canvas;
+
+import com.drawingstudio.render.SurfaceFactory;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Cached flattening of the layers below and above the active layer, for the visible area
+ * Only the active layer is edited, so both stay valid until the stack itself
+ * changes or the view scrolls. A frame then costs three images whatever the
+ * number of layers: the layers below, the active layer, and the layers above.
+ */
+public class LayerCompositeCache {
+    private GraphicsConfiguration config;
+    private BufferedImage below;
+    private BufferedImage above;
+    private Rectangle area = new Rectangle();
+    private boolean belowValid = false;
+    private boolean aboveValid = false;
+    private boolean aboveEmpty = true;
+
+    // Counters for checking the cache works
+    private long hits = 0;
+    private long rebuilds = 0;
+
+    /**
+     * Get the paper and the layers below the active one, flattened into an opaque image
+     * @param visible Area to cover, in drawing coordinates; see getArea for where the image sits
+     */
+    public BufferedImage getBelow(LayerStack layers, Rectangle visible) {
+        cover(visible);
+        if (belowValid) {
+            hits++;
+            return below;
+        }
+
+        if (below == null || below.getWidth() < area.width || below.getHeight() < area.height) {
+            below = SurfaceFactory.createCompatibleImage(config, area.width, area.height, Transparency.OPAQUE);
+        }
+        Graphics2D g = createGraphics(below);
+        g.setColor(Color.WHITE);
+        g.fillRect(area.x, area.y, area.width, area.height);
+        layers.composite(g, area, 0, layers.getActiveIndex());
+        g.dispose();
+
+        belowValid = true;
+        rebuilds++;
+        return below;
+    }
+
+    /**
+     * Get the layers above the active one, flattened into a translucent image
+     * @return The image, or null if no layer above the active one shows
+     */
+    public BufferedImage getAbove(LayerStack layers, Rectangle visible) {
+        cover(visible);
+        if (aboveValid) {
+            hits++;
+            return aboveEmpty ? null : above;
+        }
+
+        aboveValid = true;
+        aboveEmpty = !layers.hasVisibleAbove();
+        if (aboveEmpty) {
+            return null;
+        }
+        if (above == null || above.getWidth() < area.width || above.getHeight() < area.height) {
+            above = SurfaceFactory.createCompatibleImage(config, area.width, area.height, Transparency.TRANSLUCENT);
+        }
+        Graphics2D g = createGraphics(above);
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(area.x, area.y, area.width, area.height);
+        g.setComposite(AlphaComposite.SrcOver);
+        layers.composite(g, area, layers.getActiveIndex() + 1, layers.size());
+        g.dispose();
+
+        rebuilds++;
+        return above;
+    }
+
+    /**
+     * Get the drawing area the images currently cover
+     * Pixel (0, 0) of each image is the top-left corner of this area
+     */
+    public Rectangle getArea() {
+        return new Rectangle(area);
+    }
+
+    /**
+     * Set the screen the images are shown on, e.g. once the canvas is on screen
+     * @param config Screen configuration, or null for plain RGB and ARGB images
+     */
+    public void setGraphicsConfiguration(GraphicsConfiguration config) {
+        if (config != this.config) {
+            this.config = config;
+            below = null;
+            above = null;
+            invalidate();
+        }
+    }
+
+    /**
+     * Mark both images stale after layers were added, removed, reordered,
+     * shown, hidden or faded, or another layer became active
+     */
+    public void invalidate() {
+        belowValid = false;
+        aboveValid = false;
+    }
+
+    /**
+     * Move the covered area to the visible area if it no longer contains it
+     */
+    private void cover(Rectangle visible) {
+        if (!area.contains(visible)) {
+            area = new Rectangle(visible.x, visible.y, Math.max(1, visible.width), Math.max(1, visible.height));
+            invalidate();
+        }
+    }
+
+    private Graphics2D createGraphics(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(-area.x, -area.y);
+        g.clip(area);
+        return g;
+    }
+
+    // Getters
+    public long getHits() { return hits; }
+    public long getRebuilds() { return rebuilds; }
+
+    @Override
+    public String toString() {
+        return "Layer cache: " + hits + " hits, " + rebuilds + " rebuilds";
+    }
+}
@@ -0,0 +1,188 @@
+package com.drawingstudio.canvas;
+
+import com.drawingstudio.render.SurfaceFactory;
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Ordered layers of a drawing, bottom first, one of which is being edited
+ * The bottom layer is the opaque background; it always stays at the
+ * bottom and cannot be removed. Layers are composited over white paper.
+ */
+public class LayerStack {
+    private final int width;
+    private final int height;
+    private final List<Layer> layers = new ArrayList<>();
+    private int active = 0;
+    private int created = 1;
+
+    // Holds a translucent layer while it is drawn, so it fades as a whole
+    private BufferedImage scratch;
+
+    public LayerStack(int width, int height) {
+        this.width = width;
+        this.height = height;
+        layers.add(new Layer("Background", Layer.Kind.RASTER, width, height, false));
+    }
+
+    /**
+     * Add an empty layer just above the active one and make it active
+     */
+    public Layer add(Layer.Kind kind) {
+        created++;
+        String name = (kind == Layer.Kind.VECTOR ? "Vector " : "Layer ") + created;
+        Layer layer = new Layer(name, kind, width, height, true);
+        active++;
+        layers.add(active, layer);
+        return layer;
+    }
+
+    /**
+     * Remove the active layer; the one below it becomes active
+     * @return false if the active layer is the background
+     */
+    public boolean removeActive() {
+        if (active == 0) {
+            return false;
+        }
+        layers.remove(active).getHistory().dispose();
+        active--;
+        return true;
+    }
+
+    /**
+     * Move the active layer up or down the stack, never below the background
+     * @param offset Positive to move it up, towards the top
+     * @return false if the layer could not move that far
+     */
+    public boolean moveActive(int offset) {
+        int target = active + offset;
+        if (active == 0 || target < 1 || target >= layers.size()) {
+            return false;
+        }
+        layers.add(target, layers.remove(active));
+        active = target;
+        return true;
+    }
+
+    /**
+     * Drop every layer but the background and make it active, named and fully shown,
+     * e.g. before a file replaces the drawing
+     */
+    public void reset() {
+        while (layers.size() > 1) {
+            layers.remove(layers.size() - 1).getHistory().dispose();
+        }
+        active = 0;
+        created = 1;
+        Layer background = layers.get(0);
+        background.setName("Background");
+        background.setVisible(true);
+        background.setOpacity(1f);
+    }
+
+    /**
+     * Release every layer's history, once the stack is no longer used
+     */
+    public void dispose() {
+        for (Layer layer : layers) {
+            layer.getHistory().dispose();
+        }
+    }
+
+    /**
+     * Check if the stack is just the background, shown as it is drawn
+     */
+    public boolean isSingleLayer() {
+        return layers.size() == 1 && layers.get(0).isOpaque();
+    }
+
+    /**
+     * Check if any layer above the active one would show
+     */
+    public boolean hasVisibleAbove() {
+        for (int i = active + 1; i < layers.size(); i++) {
+            if (layers.get(i).isVisible() && layers.get(i).getOpacity() > 0f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draw a range of layers, bottom first, with their visibility and opacity
+     * @param g Graphics in drawing coordinates
+     * @param from Index of the lowest layer to draw
+     * @param to Index just past the highest layer to draw
+     */
+    public void composite(Graphics2D g, Rectangle region, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible() || layer.getOpacity() <= 0f) {
+                continue;
+            }
+            if (layer.getOpacity() >= 1f) {
+                layer.drawTo(g, region);
+            } else {
+                drawWithOpacity(g, region, layer.getOpacity(), target -> layer.drawTo(target, region));
+            }
+        }
+    }
+
+    /**
+     * Draw content faded to an opacity as a group, so its overlapping parts
+     * do not show through each other
+     * @param content Drawing code, given graphics in drawing coordinates clipped to the region
+     */
+    public void drawWithOpacity(Graphics2D g, Rectangle region, float opacity, Consumer<Graphics2D> content) {
+        if (region.isEmpty()) {
+            return;
+        }
+        if (scratch == null || scratch.getWidth() < region.width || scratch.getHeight() < region.height) {
+            int scratchWidth = Math.max(region.width, scratch == null ? 0 : scratch.getWidth());
+            int scratchHeight = Math.max(region.height, scratch == null ? 0 : scratch.getHeight());
+            scratch = SurfaceFactory.createCompatibleImage(null, scratchWidth, scratchHeight, Transparency.TRANSLUCENT);
+        }
+
+        Graphics2D sg = scratch.createGraphics();
+        sg.setComposite(AlphaComposite.Clear);
+        sg.fillRect(0, 0, region.width, region.height);
+        sg.setComposite(AlphaComposite.SrcOver);
+        sg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        sg.translate(-region.x, -region.y);
+        sg.clip(region);
+        content.accept(sg);
+        sg.dispose();
+
+        Composite previous = g.getComposite();
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        g.drawImage(scratch, region.x, region.y, region.x + region.width, region.y + region.height,
+            0, 0, region.width, region.height, null);
+        g.setComposite(previous);
+    }
+
+    // Getters
+    public int size() { return layers.size(); }
+    public Layer get(int index) { return layers.get(index); }
+    public Layer getActive() { return layers.get(active); }
+    public int getActiveIndex() { return active; }
+    public List<Layer> getLayers() { return Collections.unmodifiableList(layers); }
+
+    /**
+     * Make a layer the one being edited
+     */
+    public void setActive(int index) {
+        if (index >= 0 && index < layers.size()) {
+            active = index;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.drawingstudio.canvas;
+
+import com.drawingstudio.manager.HistoryManager;
+import com.drawingstudio.utils.LatencyHistogram;
+import com.drawingstudio.utils.PerformanceMonitor;
+import com.drawingstudio.utils.StrokeSimplifier;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * Overlay in the corner of the canvas showing live performance figures
+ *
+ * The figures are worked out from the PerformanceMonitor histograms at most
+ * twice a second, over the values recorded since the previous update, so
+ * drawing the overlay costs no more than drawing a few lines of text.
+ *
+ * FPS counts frames put on screen, which only active rendering reports.
+ * Paints/s counts every paint, partial repaints of damaged areas included,
+ * so it is usually higher.
+ */
+class PerformanceHud {
+    private static final long REFRESH_NANOS = 500_000_000L;
+    private static final int MARGIN = 8;
+    private static final int PADDING = 6;
+    private static final int WIDTH = 270;
+    private static final int LINES = 8;
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+
+    private boolean visible = Boolean.getBoolean("drawingstudio.hud");
+
+    // Histograms as of the last update
+    private LatencyHistogram.Snapshot lastPaint;
+    private LatencyHistogram.Snapshot lastInput;
+    private LatencyHistogram.Snapshot lastHistory;
+    private long lastFramesShown;
+    private long lastRefresh;
+
+    private String[] lines = {"Collecting..."};
+
+    public boolean isVisible() { return visible; }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        lastRefresh = 0;
+    }
+
+    /**
+     * Get the area the overlay covers when the given part of the canvas is on screen
+     */
+    public Rectangle getBounds(Rectangle visibleArea) {
+        int height = PADDING * 2 + 14 * LINES;
+        return new Rectangle(visibleArea.x + MARGIN, visibleArea.y + MARGIN, WIDTH, height);
+    }
+
+    /**
+     * Draw the overlay in the top-left corner of the visible area
+     * @param activeRendering True if frames are drawn by the render thread, which counts the frames it shows
+     */
+    public void draw(Graphics2D g, Rectangle visibleArea, boolean activeRendering, int shapeCount,
+                     HistoryManager history, ShapeLayerCache shapeCache, StrokeSimplifier strokes) {
+        long now = System.nanoTime();
+        if (lastRefresh == 0 || now - lastRefresh >= REFRESH_NANOS) {
+            refresh(now, activeRendering, shapeCount, history, shapeCache, strokes);
+        }
+
+        Rectangle bounds = getBounds(visibleArea);
+        g.setColor(BACKGROUND);
+        g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+        g.setColor(Color.WHITE);
+        g.setFont(FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        int y = bounds.y + PADDING + metrics.getAscent();
+        for (String line : lines) {
+            g.drawString(line, bounds.x + PADDING, y);
+            y += 14;
+        }
+    }
+
+    private void refresh(long now, boolean activeRendering, int shapeCount, HistoryManager historyManager,
+                         ShapeLayerCache shapeCache, StrokeSimplifier strokes) {
+        LatencyHistogram.Snapshot paint = PerformanceMonitor.getPaintTimes().snapshot();
+        LatencyHistogram.Snapshot input = PerformanceMonitor.getInputTimes().snapshot();
+        LatencyHistogram.Snapshot history = PerformanceMonitor.getHistoryTimes().snapshot();
+        long framesShown = PerformanceMonitor.getFramesShown();
+
+        if (lastRefresh != 0) {
+            LatencyHistogram.Snapshot paints = paint.since(lastPaint);
+            LatencyHistogram.Snapshot inputs = input.since(lastInput);
+            LatencyHistogram.Snapshot actions = history.since(lastHistory);
+            double seconds = (now - lastRefresh) / 1e9;
+            double paintRate = paints.getCount() / seconds;
+
+            lines = new String[] {
+                activeRendering
+                    ? String.format("FPS %5.1f  Paints/s %5.1f", (framesShown - lastFramesShown) / seconds, paintRate)
+                    : String.format("Paints/s %5.1f", paintRate),
+                "Paint   " + percentiles(paints),
+                "Input   " + percentiles(inputs),
+                "History " + percentiles(actions),
+                String.format("Shapes %d  History %.1f MB (%.1fx)", shapeCount,
+                    historyManager.getHistoryBytes() / (1024.0 * 1024.0), historyManager.getCompressionRatio()),
+                String.format("Cache %d hits  %d rebuilds", shapeCache.getHits(), shapeCache.getRebuilds()),
+                String.format("Strokes %d -> %d points (%.1fx)",
+                    strokes.getTotalInput(), strokes.getTotalOutput(), strokes.getReductionRatio()),
+                "Last save " + duration(PerformanceMonitor.getLastSaveMillis())
+                    + "  load " + duration(PerformanceMonitor.getLastLoadMillis())
+            };
+        }
+        lastPaint = paint;
+        lastInput = input;
+        lastHistory = history;
+        lastFramesShown = framesShown;
+        lastRefresh = now;
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot values) {
+        return String.format("p50 %6.2f ms  p99 %6.2f ms", values.getPercentile(0.5) / 1e6, values.getPercentile(0.99) / 1e6);
+    }
+
+    private static String duration(long millis) {
+        return millis < 0 ? "-" : millis + " ms";
+    }
+}
@@ -0,0 +1,197 @@
+package com.drawingstudio.canvas;
+
+import com.drawingstudio.render.SurfaceFactory;
+import com.drawingstudio.shapes.ShapeBase;
+import com.drawingstudio.shapes.ShapeIndex;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.Transparency;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Cached raster of the committed shapes in the visible area
+ * Rebuilt only when the shape list changes or the view scrolls, so a frame
+ * costs one blit no matter how many shapes the drawing holds. The layer is
+ * created in the screen's format, so the blit needs no pixel conversion.
+ */
+public class ShapeLayerCache {
+    private GraphicsConfiguration config;
+    private BufferedImage layer;
+    private Rectangle area = new Rectangle();
+    private boolean valid = false;
+
+    // Stroke still being drawn, redrawn after every rebuild or repair so it never drops out
+    private Path2D.Float pendingStroke;
+    private Color pendingColor;
+    private Stroke pendingStyle;
+
+    // Counters for checking the cache works
+    private long hits = 0;
+    private long rebuilds = 0;
+    private long appends = 0;
+    private long repairs = 0;
+
+    /**
+     * Get the shapes layer covering an area, rebuilding it first if it was
+     * invalidated or does not cover that area
+     * @param index Index over the shapes, used to draw only those in the area
+     * @param visible Area to cover, in drawing coordinates; see getArea for where the layer sits
+     */
+    public BufferedImage getLayer(ShapeIndex index, Rectangle visible) {
+        if (valid && area.contains(visible)) {
+            hits++;
+            return layer;
+        }
+
+        if (layer == null || layer.getWidth() < visible.width || layer.getHeight() < visible.height) {
+            layer = SurfaceFactory.createCompatibleImage(config, Math.max(1, visible.width), Math.max(1, visible.height),
+                Transparency.TRANSLUCENT);
+        }
+        area = new Rectangle(visible.x, visible.y, layer.getWidth(), layer.getHeight());
+
+        Graphics2D g = createLayerGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(area.x, area.y, area.width, area.height);
+        g.setComposite(AlphaComposite.SrcOver);
+        for (ShapeBase shape : index.query(area)) {
+            shape.draw(g);
+        }
+        drawPendingStroke(g);
+        g.dispose();
+
+        valid = true;
+        rebuilds++;
+        return layer;
+    }
+
+    /**
+     * Get the drawing area the layer currently covers
+     * Pixel (0, 0) of the layer is the top-left corner of this area
+     */
+    public Rectangle getArea() {
+        return new Rectangle(area);
+    }
+
+    /**
+     * Draw a newly added shape on top of the cached layer
+     * Cheaper than a rebuild since shapes are only ever appended on top
+     */
+    public void append(ShapeBase shape) {
+        if (!valid || !shape.getBounds().intersects(area)) {
+            return;
+        }
+        Graphics2D g = createLayerGraphics();
+        shape.draw(g);
+        g.dispose();
+        appends++;
+    }
+
+    /**
+     * Draw part of a stroke that is still being drawn
+     * The pieces are kept, so a rebuild in the middle of the stroke draws them
+     * again. Once the stroke is committed as a shape, call endStroke and repair
+     * its bounds so the layer shows the stored shape rather than the live pieces.
+     */
+    public void appendStroke(Shape path, Color color, Stroke stroke) {
+        if (pendingStroke == null) {
+            pendingStroke = new Path2D.Float();
+            pendingColor = color;
+            pendingStyle = stroke;
+        }
+        pendingStroke.append(path, false);
+        if (!valid) {
+            return; // Drawn whole by the next rebuild
+        }
+        Graphics2D g = createLayerGraphics();
+        g.setColor(color);
+        g.setStroke(stroke);
+        g.draw(path);
+        g.dispose();
+    }
+
+    /**
+     * Forget the stroke in progress, once it has been committed or abandoned
+     */
+    public void endStroke() {
+        pendingStroke = null;
+        pendingColor = null;
+        pendingStyle = null;
+    }
+
+    /**
+     * Redraw the shapes in one region of the layer, e.g. after a shape there was removed
+     * Much cheaper than a full rebuild when the region is small
+     */
+    public void repair(ShapeIndex index, Rectangle region) {
+        if (!valid) {
+            return;
+        }
+        Rectangle damaged = region.intersection(area);
+        if (damaged.isEmpty()) {
+            return;
+        }
+        Graphics2D g = createLayerGraphics();
+        g.clip(damaged);
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(damaged.x, damaged.y, damaged.width, damaged.height);
+        g.setComposite(AlphaComposite.SrcOver);
+        for (ShapeBase shape : index.query(damaged)) {
+            shape.draw(g);
+        }
+        drawPendingStroke(g);
+        g.dispose();
+        repairs++;
+    }
+
+    /**
+     * Set the screen the layer is shown on, e.g. once the canvas is on screen
+     * @param config Screen configuration, or null for a plain ARGB image
+     */
+    public void setGraphicsConfiguration(GraphicsConfiguration config) {
+        if (config != this.config) {
+            this.config = config;
+            layer = null;
+            valid = false;
+        }
+    }
+
+    /**
+     * Mark the layer stale after shapes were removed or replaced
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    private void drawPendingStroke(Graphics2D g) {
+        if (pendingStroke != null) {
+            g.setColor(pendingColor);
+            g.setStroke(pendingStyle);
+            g.draw(pendingStroke);
+        }
+    }
+
+    private Graphics2D createLayerGraphics() {
+        Graphics2D g = layer.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(-area.x, -area.y);
+        return g;
+    }
+
+    // Getters
+    public long getHits() { return hits; }
+    public long getRebuilds() { return rebuilds; }
+    public long getAppends() { return appends; }
+    public long getRepairs() { return repairs; }
+
+    @Override
+    public String toString() {
+        return "Shape cache: " + hits + " hits, " + rebuilds + " rebuilds, " + appends + " appends, " + repairs + " repairs";
+    }
+}
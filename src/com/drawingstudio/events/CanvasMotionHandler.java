@@ -6,21 +6,24 @@ import java.awt.event.MouseMotionListener;
 
 /**
  * Handles mouse motion events (dragging and moving) for the canvas
+ * Drags are batched per frame by an InputCoalescer rather than handled one by one
  */
 public class CanvasMotionHandler implements MouseMotionListener {
     private DrawingCanvas canvas;
+    private InputCoalescer coalescer;
     
-    public CanvasMotionHandler(DrawingCanvas canvas) {
+    public CanvasMotionHandler(DrawingCanvas canvas, InputCoalescer coalescer) {
         this.canvas = canvas;
+        this.coalescer = coalescer;
     }
     
     @Override
     public void mouseDragged(MouseEvent e) {
-        canvas.handleMouseDragged(e);
+        coalescer.add(e);
     }
     
     @Override
     public void mouseMoved(MouseEvent e) {
-        canvas.handleMouseMoved(e);
+        canvas.submitInput(() -> canvas.handleMouseMoved(e));
     }
 }
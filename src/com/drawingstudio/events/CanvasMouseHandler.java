@@ -6,27 +6,33 @@ import java.awt.event.MouseListener;
 
 /**
  * Handles mouse click and press/release events for the canvas
+ * Events are handed over with submitInput, so with active rendering they are
+ * handled on the render thread
  */
 public class CanvasMouseHandler implements MouseListener {
     private DrawingCanvas canvas;
+    private InputCoalescer coalescer;
     
-    public CanvasMouseHandler(DrawingCanvas canvas) {
+    public CanvasMouseHandler(DrawingCanvas canvas, InputCoalescer coalescer) {
         this.canvas = canvas;
+        this.coalescer = coalescer;
     }
     
     @Override
     public void mousePressed(MouseEvent e) {
-        canvas.handleMousePressed(e);
+        canvas.submitInput(() -> canvas.handleMousePressed(e));
     }
     
     @Override
     public void mouseReleased(MouseEvent e) {
-        canvas.handleMouseReleased(e);
+        // Drags still waiting for the next frame belong to this stroke
+        coalescer.flush();
+        canvas.submitInput(() -> canvas.handleMouseReleased(e));
     }
     
     @Override
     public void mouseClicked(MouseEvent e) {
-        canvas.handleMouseClicked(e);
+        canvas.submitInput(() -> canvas.handleMouseClicked(e));
     }
     
     @Override
@@ -0,0 +1,122 @@
+package com.drawingstudio.events;
+
+import com.drawingstudio.canvas.DrawingCanvas;
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import javax.swing.Timer;
+
+/**
+ * Batches mouse drag samples and hands them to the canvas once per frame
+ *
+ * High-rate mice report 500-1000 drags a second, far more than the screen
+ * can show. Samples are buffered with their timestamps and flushed from a
+ * timer paced to the display refresh rate, so the canvas draws and repaints
+ * once per frame however fast the events arrive. No samples are dropped.
+ */
+public class InputCoalescer {
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final DrawingCanvas canvas;
+    private final Timer frameTimer;
+
+    // Samples received since the last flush
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private long[] times = new long[64];
+    private int count = 0;
+
+    // Statistics
+    private long samples = 0;
+    private long batches = 0;
+    private long maxLatencyMillis = 0;
+
+    public InputCoalescer(DrawingCanvas canvas) {
+        this.canvas = canvas;
+        this.frameTimer = new Timer(1000 / getRefreshRate(), e -> onFrame());
+        frameTimer.setCoalesce(true);
+    }
+
+    /**
+     * Buffer a drag event until the next frame
+     */
+    public void add(MouseEvent e) {
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, count * 2);
+            ys = Arrays.copyOf(ys, count * 2);
+            times = Arrays.copyOf(times, count * 2);
+        }
+        xs[count] = e.getX();
+        ys[count] = e.getY();
+        times[count] = e.getWhen();
+        count++;
+        samples++;
+
+        if (!frameTimer.isRunning()) {
+            frameTimer.start();
+        }
+    }
+
+    /**
+     * Deliver buffered samples right away, e.g. before the mouse is released
+     */
+    public void flush() {
+        if (count == 0) {
+            return;
+        }
+        long latency = System.currentTimeMillis() - times[0];
+        maxLatencyMillis = Math.max(maxLatencyMillis, latency);
+        batches++;
+
+        int delivered = count;
+        count = 0;
+        if (canvas.isActiveRendering()) {
+            // Handled later on the render thread, by which time the arrays are reused
+            int[] batchX = Arrays.copyOf(xs, delivered);
+            int[] batchY = Arrays.copyOf(ys, delivered);
+            canvas.submitInput(() -> canvas.handleMouseDragged(batchX, batchY, delivered));
+        } else {
+            canvas.handleMouseDragged(xs, ys, delivered);
+        }
+    }
+
+    private void onFrame() {
+        if (count == 0) {
+            // Nothing arrived during the last frame; sleep until the next drag
+            frameTimer.stop();
+            return;
+        }
+        flush();
+    }
+
+    /**
+     * Get the display refresh rate, falling back to 60 Hz when it is unknown
+     */
+    private static int getRefreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return DEFAULT_REFRESH_RATE;
+        }
+        DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice().getDisplayMode();
+        int rate = mode.getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+    }
+
+    // Getters
+    public long getSampleCount() { return samples; }
+    public long getBatchCount() { return batches; }
+    public long getMaxLatencyMillis() { return maxLatencyMillis; }
+
+    /**
+     * Get the average number of drag events merged into one frame
+     */
+    public double getCoalescingRatio() {
+        return batches == 0 ? 1.0 : (double) samples / batches;
+    }
+
+    @Override
+    public String toString() {
+        return "Input: " + samples + " samples in " + batches + " frames, max latency " + maxLatencyMillis + " ms";
+    }
+}
@@ -0,0 +1,28 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Shape added on top of the drawing
+ */
+public class AddShapeOperation implements HistoryOperation {
+    private final ShapeBase shape;
+    
+    public AddShapeOperation(ShapeBase shape) {
+        this.shape = shape;
+    }
+    
+    @Override
+    public Rectangle apply(TiledSurface surface, List<ShapeBase> shapes) {
+        shapes.add(shape);
+        return null;
+    }
+    
+    @Override
+    public long getByteSize() {
+        return 16 + shape.getByteSize();
+    }
+}
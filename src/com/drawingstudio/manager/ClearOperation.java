@@ -0,0 +1,25 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Whole canvas cleared to white
+ */
+public class ClearOperation implements HistoryOperation {
+    
+    @Override
+    public Rectangle apply(TiledSurface surface, List<ShapeBase> shapes) {
+        surface.clear();
+        
+        shapes.clear();
+        return surface.getBounds();
+    }
+    
+    @Override
+    public long getByteSize() {
+        return 16;
+    }
+}
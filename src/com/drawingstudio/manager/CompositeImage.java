@@ -0,0 +1,226 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Flattened view of a drawing's layers, each a tile snapshot with shapes
+ * drawn on top
+ *
+ * Pixels are composited one horizontal band at a time, only when an
+ * encoder asks for them. Image writers read rows top to bottom, so
+ * exporting even a very large drawing needs just one band in memory,
+ * plus one more per kind of layer it has. Each layer's part of a band is
+ * rendered in parallel by a TileCompositor and blended over white paper
+ * with the layer's opacity. The drawing can be scaled on the way, e.g.
+ * for thumbnails.
+ */
+public class CompositeImage implements RenderedImage {
+    private static final int BAND_HEIGHT = 256;
+
+    private final List<LayerSnapshot> layers = new ArrayList<>();
+    private final List<TileCompositor> compositors = new ArrayList<>();
+    private final int width;
+    private final int height;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    // Most recently composited band
+    private BufferedImage band;
+    private int bandIndex = -1;
+
+    // A layer's part of a band, before it is blended into the band; opaque and transparent
+    private final BufferedImage[] layerBands = new BufferedImage[2];
+
+    /**
+     * @param raster Tile snapshot of the drawing surface
+     * @param shapes Shapes to draw on top, bottom to top; must not change while the image is read
+     */
+    public CompositeImage(RasterTiles raster, List<ShapeBase> shapes) {
+        this(raster, shapes, 1.0);
+    }
+
+    /**
+     * @param scale Size of the image relative to the drawing
+     */
+    public CompositeImage(RasterTiles raster, List<ShapeBase> shapes, double scale) {
+        this(List.of(new LayerSnapshot(raster, shapes)), scale);
+    }
+
+    /**
+     * @param layers Layers of the drawing, bottom first; hidden layers are left out
+     * @param scale Size of the image relative to the drawing
+     */
+    public CompositeImage(List<LayerSnapshot> layers, double scale) {
+        for (LayerSnapshot layer : layers) {
+            if (layer.isShown()) {
+                this.layers.add(layer);
+                this.compositors.add(new TileCompositor(layer.getRaster(), layer.getShapes(), scale));
+            }
+        }
+        RasterTiles bottom = layers.get(0).getRaster();
+        this.width = Math.max(1, (int) Math.ceil(bottom.getWidth() * scale));
+        this.height = Math.max(1, (int) Math.ceil(bottom.getHeight() * scale));
+
+        BufferedImage sample = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        this.colorModel = sample.getColorModel();
+        this.sampleModel = sample.getSampleModel().createCompatibleSampleModel(width, BAND_HEIGHT);
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        int top = tileY * BAND_HEIGHT;
+        return getBand(tileY).getRaster().createChild(0, 0, width, Math.min(BAND_HEIGHT, height - top), 0, top, null);
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle area = rect.intersection(new Rectangle(0, 0, width, height));
+        int first = area.y / BAND_HEIGHT;
+        int last = (area.y + area.height - 1) / BAND_HEIGHT;
+
+        if (first == last) {
+            // Usual case for encoders: share the band's pixels without copying
+            return getBand(first).getRaster().createChild(area.x, area.y - first * BAND_HEIGHT,
+                area.width, area.height, area.x, area.y, null);
+        }
+
+        WritableRaster result = colorModel.createCompatibleWritableRaster(area.width, area.height)
+            .createWritableTranslatedChild(area.x, area.y);
+        copyData(result);
+        return result;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster target) {
+        if (target == null) {
+            target = colorModel.createCompatibleWritableRaster(width, height);
+        }
+        Rectangle area = target.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (area.isEmpty()) {
+            return target;
+        }
+
+        for (int index = area.y / BAND_HEIGHT; index <= (area.y + area.height - 1) / BAND_HEIGHT; index++) {
+            Rectangle part = area.intersection(new Rectangle(0, index * BAND_HEIGHT, width, BAND_HEIGHT));
+            Raster source = getBand(index).getRaster().createChild(part.x, part.y - index * BAND_HEIGHT,
+                part.width, part.height, part.x, part.y, null);
+            target.setRect(source);
+        }
+        return target;
+    }
+
+    /**
+     * Composite one band, reusing the previous result when the same band is asked for again
+     */
+    private BufferedImage getBand(int index) {
+        if (index == bandIndex) {
+            return band;
+        }
+        if (band == null) {
+            band = new BufferedImage(width, BAND_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        }
+
+        int top = index * BAND_HEIGHT;
+        Rectangle area = new Rectangle(0, top, width, Math.min(BAND_HEIGHT, height - top));
+        Graphics2D g = band.createGraphics();
+        for (int i = 0; i < layers.size(); i++) {
+            LayerSnapshot layer = layers.get(i);
+            boolean transparent = layer.getRaster().isTransparent();
+            if (i == 0 && !transparent && layer.getOpacity() >= 1f) {
+                // An opaque bottom layer covers the whole band, so it is composited in place
+                compositors.get(i).composite(band, area);
+                continue;
+            }
+            if (i == 0) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, area.width, area.height);
+            }
+            BufferedImage layerBand = layerBand(transparent);
+            compositors.get(i).composite(layerBand, area);
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, layer.getOpacity()));
+            g.drawImage(layerBand, 0, 0, area.width, area.height, 0, 0, area.width, area.height, null);
+        }
+        if (layers.isEmpty()) {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, area.width, area.height);
+        }
+        g.dispose();
+
+        bandIndex = index;
+        return band;
+    }
+
+    private BufferedImage layerBand(boolean transparent) {
+        int kind = transparent ? 1 : 0;
+        if (layerBands[kind] == null) {
+            layerBands[kind] = new BufferedImage(width, BAND_HEIGHT,
+                transparent ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+        }
+        return layerBands[kind];
+    }
+
+    // Layout: a single column of full-width bands
+
+    @Override
+    public int getWidth() { return width; }
+    @Override
+    public int getHeight() { return height; }
+    @Override
+    public int getMinX() { return 0; }
+    @Override
+    public int getMinY() { return 0; }
+    @Override
+    public int getNumXTiles() { return 1; }
+    @Override
+    public int getNumYTiles() { return (height + BAND_HEIGHT - 1) / BAND_HEIGHT; }
+    @Override
+    public int getMinTileX() { return 0; }
+    @Override
+    public int getMinTileY() { return 0; }
+    @Override
+    public int getTileWidth() { return width; }
+    @Override
+    public int getTileHeight() { return BAND_HEIGHT; }
+    @Override
+    public int getTileGridXOffset() { return 0; }
+    @Override
+    public int getTileGridYOffset() { return 0; }
+    @Override
+    public ColorModel getColorModel() { return colorModel; }
+    @Override
+    public SampleModel getSampleModel() { return sampleModel; }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+}
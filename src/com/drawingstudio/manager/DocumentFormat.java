@@ -0,0 +1,408 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.shapes.FreehandShape;
+import com.drawingstudio.shapes.ShapeBase;
+import com.drawingstudio.utils.ShapeUtils;
+import java.awt.Color;
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Reads and writes the native .dsd document format
+ *
+ * Unlike PNG export, the native format keeps every layer, and every shape
+ * as a vector record, so a reopened drawing can still be edited. All
+ * values are big-endian:
+ *
+ *   header      magic "DSDC", version, tile size, width, height, layer count
+ *   then for each layer, bottom first:
+ *   shapes      one fixed-size record per shape: type, flags, stroke width, color, two points;
+ *               freehand records hold the offset, point count and length of their points,
+ *               and their smoothing mode in the flags
+ *   strokes     encoded points of every freehand stroke (version 2)
+ *   tiles       deflated pixels of every painted tile, RGB for the bottom layer and
+ *               premultiplied ARGB for those above it; blank tiles are left out
+ *   tile index  offset and length of each tile, 0 for blank tiles
+ *   and then:
+ *   layer table one record per layer: vector flag, visible flag, name length, opacity,
+ *               offsets of its shapes and tile index, shape count, UTF-8 name (version 3)
+ *   footer      offset of the layer table, tile count per layer, magic
+ *
+ * Versions 1 and 2 hold a single layer: the header ends with its shape
+ * count instead, and the footer points at its tile index.
+ */
+public class DocumentFormat {
+    public static final String EXTENSION = ".dsd";
+
+    static final int MAGIC = 0x44534443; // "DSDC"
+    static final short VERSION = 3;
+    static final int HEADER_SIZE = 20;
+    static final int SHAPE_RECORD_SIZE = 24;
+    static final int TILE_INDEX_ENTRY_SIZE = 12;
+    static final int FOOTER_SIZE = 16;
+    static final int LAYER_RECORD_SIZE = 28;
+    // Keeps a tile's pixels within one array; documents are written with RasterTiles.TILE_SIZE
+    static final int MAX_TILE_SIZE = 4096;
+
+    private static final String[] SHAPE_TYPES = {"LINE", "RECTANGLE", "OVAL", "TRIANGLE", "DIAMOND", "FREEHAND"};
+    private static final int FREEHAND = 6;
+    private static final int BLANK_PIXEL = 0xFFFFFF;
+    private static final int TRANSPARENT_PIXEL = 0;
+
+    /**
+     * Check if a file should be written in the native format
+     */
+    public static boolean isNativeFile(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Check the magic number at the start of a file
+     */
+    public static boolean hasNativeHeader(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write a drawing to a file
+     * @param file Destination; the caller is responsible for writing via a temporary file
+     * @param layers Snapshots of the layers, bottom first; all the same size
+     */
+    public static void write(File file, List<LayerSnapshot> layers) throws IOException {
+        RasterTiles bottom = layers.get(0).getRaster();
+        int tileCount = bottom.getColumns() * bottom.getRows();
+        long[] shapeTableOffsets = new long[layers.size()];
+        long[] tileIndexOffsets = new long[layers.size()];
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort(VERSION);
+            header.putShort((short) RasterTiles.TILE_SIZE);
+            header.putInt(bottom.getWidth());
+            header.putInt(bottom.getHeight());
+            header.putInt(layers.size());
+            header.flip();
+            writeFully(channel, header);
+
+            // Each layer's shapes, strokes, tiles and tile index in turn
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            byte[] output = new byte[RasterTiles.TILE_SIZE * RasterTiles.TILE_SIZE * 4 + 64];
+            try {
+                for (int i = 0; i < layers.size(); i++) {
+                    shapeTableOffsets[i] = channel.position();
+                    writeShapes(channel, layers.get(i).getShapes());
+                    tileIndexOffsets[i] = writeTiles(channel, layers.get(i).getRaster(), deflater, output);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            // Layer table and footer
+            long layerTableOffset = channel.position();
+            for (int i = 0; i < layers.size(); i++) {
+                LayerSnapshot layer = layers.get(i);
+                byte[] name = layer.getName().getBytes(StandardCharsets.UTF_8);
+                if (name.length > 0xFFFF) {
+                    throw new IOException("Layer name too long: " + layer.getName());
+                }
+                ByteBuffer record = ByteBuffer.allocate(LAYER_RECORD_SIZE + name.length);
+                record.put((byte) (layer.isVector() ? 1 : 0));
+                record.put((byte) (layer.isVisible() ? 1 : 0));
+                record.putShort((short) name.length);
+                record.putFloat(layer.getOpacity());
+                record.putLong(shapeTableOffsets[i]);
+                record.putInt(layer.getShapes().size());
+                record.putLong(tileIndexOffsets[i]);
+                record.put(name);
+                record.flip();
+                writeFully(channel, record);
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(layerTableOffset);
+            footer.putInt(tileCount);
+            footer.putInt(MAGIC);
+            footer.flip();
+            writeFully(channel, footer);
+        }
+    }
+
+    /**
+     * Write a shape table followed by the points of its freehand strokes
+     */
+    private static void writeShapes(FileChannel channel, List<ShapeBase> shapes) throws IOException {
+        ByteBuffer table = ByteBuffer.allocate(shapes.size() * SHAPE_RECORD_SIZE);
+        long strokeOffset = channel.position() + (long) shapes.size() * SHAPE_RECORD_SIZE;
+        for (ShapeBase shape : shapes) {
+            writeShape(table, shape, strokeOffset);
+            if (shape instanceof FreehandShape) {
+                strokeOffset += ((FreehandShape) shape).getEncodedPoints().length;
+            }
+        }
+        table.flip();
+        writeFully(channel, table);
+
+        // Freehand points, already encoded, in the order of the shape table
+        for (ShapeBase shape : shapes) {
+            if (shape instanceof FreehandShape) {
+                writeFully(channel, ByteBuffer.wrap(((FreehandShape) shape).getEncodedPoints()));
+            }
+        }
+    }
+
+    /**
+     * Write the painted tiles of a raster followed by their index
+     * @return Offset of the tile index
+     */
+    private static long writeTiles(FileChannel channel, RasterTiles raster, Deflater deflater, byte[] output)
+            throws IOException {
+        int tileCount = raster.getColumns() * raster.getRows();
+        ByteBuffer index = ByteBuffer.allocate(tileCount * TILE_INDEX_ENTRY_SIZE);
+        for (int i = 0; i < tileCount; i++) {
+            if (raster.isBlank(i)) {
+                index.putLong(0).putInt(0);
+                continue;
+            }
+            int[] pixels = raster.getTile(i).getPixels();
+            if (isBlank(pixels, raster.isTransparent())) {
+                index.putLong(0).putInt(0);
+                continue;
+            }
+
+            ByteBuffer raw = ByteBuffer.allocate(pixels.length * 4);
+            raw.asIntBuffer().put(pixels);
+            deflater.reset();
+            deflater.setInput(raw.array());
+            deflater.finish();
+
+            long offset = channel.position();
+            int length = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(output);
+                writeFully(channel, ByteBuffer.wrap(output, 0, n));
+                length += n;
+            }
+            index.putLong(offset).putInt(length);
+        }
+
+        long indexOffset = channel.position();
+        index.flip();
+        writeFully(channel, index);
+        return indexOffset;
+    }
+
+    /**
+     * Open a drawing by reading the file into memory
+     * Only the header, footer, layer table and shape tables are checked here; shapes and tiles are decoded on access
+     */
+    public static DrawingDocument read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a drawing document: " + file.getName());
+            }
+            // Read onto the heap rather than mapping, so nothing keeps the file open once this returns;
+            // Windows cannot replace a file while a mapping of it is alive
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining()) {
+                if (channel.read(data, data.position()) < 0) {
+                    throw new IOException("Truncated drawing document: " + file.getName());
+                }
+            }
+
+            if (data.getInt(0) != MAGIC || data.getInt((int) size - 4) != MAGIC) {
+                throw new IOException("Not a drawing document: " + file.getName());
+            }
+            short version = data.getShort(4);
+            if (version > VERSION) {
+                throw new IOException("Unsupported document version " + version);
+            }
+
+            int tileSize = data.getShort(6);
+            int width = data.getInt(8);
+            int height = data.getInt(12);
+            long footerOffset = data.getLong((int) size - FOOTER_SIZE);
+            int tileCount = data.getInt((int) size - 8);
+
+            if (tileSize <= 0 || tileSize > MAX_TILE_SIZE || width <= 0 || height <= 0) {
+                throw new IOException("Corrupt drawing document: " + file.getName());
+            }
+            long columns = (width + (long) tileSize - 1) / tileSize;
+            long rows = (height + (long) tileSize - 1) / tileSize;
+            if (tileCount != columns * rows) {
+                throw new IOException("Corrupt drawing document: " + file.getName());
+            }
+
+            DrawingDocument document = new DrawingDocument(data, width, height, tileSize);
+            if (version < 3) {
+                // A single layer, its tile index pointed at by the footer
+                int shapeCount = data.getInt(16);
+                checkLayer(data, HEADER_SIZE, shapeCount, footerOffset, tileCount, size - FOOTER_SIZE, file);
+                document.addLayer("Background", false, true, 1f, HEADER_SIZE, shapeCount, (int) footerOffset);
+                return document;
+            }
+
+            int layerCount = data.getInt(16);
+            long end = size - FOOTER_SIZE;
+            if (layerCount < 1 || footerOffset < HEADER_SIZE || footerOffset > end) {
+                throw new IOException("Corrupt drawing document: " + file.getName());
+            }
+            int position = (int) footerOffset;
+            for (int i = 0; i < layerCount; i++) {
+                if (position + LAYER_RECORD_SIZE > end) {
+                    throw new IOException("Corrupt drawing document: " + file.getName());
+                }
+                int kind = data.get(position);
+                int visible = data.get(position + 1);
+                int nameLength = data.getShort(position + 2) & 0xFFFF;
+                float opacity = data.getFloat(position + 4);
+                long shapeTableOffset = data.getLong(position + 8);
+                int shapeCount = data.getInt(position + 16);
+                long indexOffset = data.getLong(position + 20);
+                if (kind < 0 || kind > 1 || visible < 0 || visible > 1 || !(opacity >= 0f && opacity <= 1f)
+                        || position + LAYER_RECORD_SIZE + nameLength > end) {
+                    throw new IOException("Corrupt drawing document: " + file.getName());
+                }
+                checkLayer(data, shapeTableOffset, shapeCount, indexOffset, tileCount, footerOffset, file);
+
+                byte[] name = new byte[nameLength];
+                data.get(position + LAYER_RECORD_SIZE, name);
+                document.addLayer(new String(name, StandardCharsets.UTF_8), kind == 1, visible == 1, opacity,
+                    (int) shapeTableOffset, shapeCount, (int) indexOffset);
+                position += LAYER_RECORD_SIZE + nameLength;
+            }
+            return document;
+        }
+    }
+
+    /**
+     * Check a layer's shape table and tile index lie within the file, in that order, before end,
+     * and that every tile the index points at lies between the header and the index
+     */
+    private static void checkLayer(ByteBuffer data, long shapeTableOffset, int shapeCount, long indexOffset,
+                                   int tileCount, long end, File file) throws IOException {
+        if (shapeCount < 0 || shapeTableOffset < HEADER_SIZE
+                || indexOffset + (long) tileCount * TILE_INDEX_ENTRY_SIZE > end
+                || shapeTableOffset + (long) shapeCount * SHAPE_RECORD_SIZE > indexOffset) {
+            throw new IOException("Corrupt drawing document: " + file.getName());
+        }
+        for (int i = 0; i < shapeCount; i++) {
+            checkShape(data, (int) shapeTableOffset + i * SHAPE_RECORD_SIZE, indexOffset, file);
+        }
+        for (int i = 0; i < tileCount; i++) {
+            int entry = (int) indexOffset + i * TILE_INDEX_ENTRY_SIZE;
+            long offset = data.getLong(entry);
+            int length = data.getInt(entry + 8);
+            if (offset != 0 && (offset < HEADER_SIZE || length < 0 || offset + length > indexOffset)) {
+                throw new IOException("Corrupt drawing document: " + file.getName());
+            }
+        }
+    }
+
+    private static void writeShape(ByteBuffer out, ShapeBase shape, long strokeOffset) {
+        Point start = shape.getStartPoint();
+        Point end = shape.getEndPoint();
+        out.put((byte) typeCode(shape.getType()));
+        // Flags byte: the smoothing mode of freehand strokes, 0 otherwise
+        out.put((byte) (shape instanceof FreehandShape ? ((FreehandShape) shape).getSmoothing().ordinal() : 0));
+        out.putShort((short) shape.getStrokeWidth());
+        out.putInt(shape.getColor().getRGB());
+        if (shape instanceof FreehandShape) {
+            FreehandShape stroke = (FreehandShape) shape;
+            out.putLong(strokeOffset);
+            out.putInt(stroke.getPointCount());
+            out.putInt(stroke.getEncodedPoints().length);
+            return;
+        }
+        out.putInt(start.x);
+        out.putInt(start.y);
+        out.putInt(end.x);
+        out.putInt(end.y);
+    }
+
+    /**
+     * Check a shape record can be decoded, so the lazy shape list never meets a bad one
+     */
+    private static void checkShape(ByteBuffer data, int offset, long indexOffset, File file) throws IOException {
+        int type = data.get(offset);
+        if (type < 1 || type > SHAPE_TYPES.length) {
+            throw new IOException("Unknown shape type " + type + " in " + file.getName());
+        }
+        if (type != FREEHAND) {
+            return;
+        }
+        int smoothing = data.get(offset + 1);
+        if (smoothing < 0 || smoothing >= FreehandShape.Smoothing.values().length) {
+            throw new IOException("Unknown stroke smoothing " + smoothing + " in " + file.getName());
+        }
+        long strokeOffset = data.getLong(offset + 8);
+        int length = data.getInt(offset + 20);
+        if (strokeOffset < HEADER_SIZE || length < 0 || strokeOffset + length > indexOffset) {
+            throw new IOException("Corrupt drawing document: " + file.getName());
+        }
+    }
+
+    static ShapeBase readShape(ByteBuffer data, int offset) {
+        int type = data.get(offset);
+        int strokeWidth = data.getShort(offset + 2);
+        Color color = new Color(data.getInt(offset + 4), true);
+        if (type == FREEHAND) {
+            long strokeOffset = data.getLong(offset + 8);
+            int pointCount = data.getInt(offset + 16);
+            byte[] encoded = new byte[data.getInt(offset + 20)];
+            ByteBuffer slice = data.duplicate();
+            slice.position((int) strokeOffset);
+            slice.get(encoded);
+            FreehandShape.Smoothing smoothing = FreehandShape.Smoothing.values()[data.get(offset + 1)];
+            return new FreehandShape(encoded, pointCount, color, strokeWidth, smoothing);
+        }
+        Point start = new Point(data.getInt(offset + 8), data.getInt(offset + 12));
+        Point end = new Point(data.getInt(offset + 16), data.getInt(offset + 20));
+        if (type < 1 || type > SHAPE_TYPES.length) {
+            throw new IllegalStateException("Unknown shape type " + type);
+        }
+        return ShapeUtils.createShape(SHAPE_TYPES[type - 1], start, end, color, strokeWidth);
+    }
+
+    private static int typeCode(String type) {
+        for (int i = 0; i < SHAPE_TYPES.length; i++) {
+            if (SHAPE_TYPES[i].equals(type)) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Shape type cannot be stored: " + type);
+    }
+
+    /**
+     * Check if tile pixels are all white, or all fully transparent on a transparent layer
+     */
+    private static boolean isBlank(int[] pixels, boolean transparent) {
+        for (int pixel : pixels) {
+            if (transparent ? pixel != TRANSPARENT_PIXEL : (pixel & 0xFFFFFF) != BLANK_PIXEL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * One layer of a drawing opened from the native document format
+ * Shapes and raster tiles are decoded from the document's bytes only when
+ * they are asked for
+ */
+public class DocumentLayer {
+    private final String name;
+    private final boolean vector;
+    private final boolean visible;
+    private final float opacity;
+    private final boolean transparent;
+    private final List<ShapeBase> shapes;
+    private final int tileIndexOffset;
+    private final DrawingDocument document;
+
+    /**
+     * @param transparent False only for the bottom layer, whose tiles hold RGB rather than premultiplied ARGB
+     */
+    DocumentLayer(DrawingDocument document, String name, boolean vector, boolean visible, float opacity,
+                  boolean transparent, int shapeTableOffset, int shapeCount, int tileIndexOffset) {
+        this.document = document;
+        this.name = name;
+        this.vector = vector;
+        this.visible = visible;
+        this.opacity = opacity;
+        this.transparent = transparent;
+        this.tileIndexOffset = tileIndexOffset;
+        this.shapes = new ShapeTable(shapeTableOffset, shapeCount);
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public boolean isVector() { return vector; }
+    public boolean isVisible() { return visible; }
+    public float getOpacity() { return opacity; }
+    public boolean isTransparent() { return transparent; }
+
+    /**
+     * Get the shapes, bottom to top
+     * The list is read-only and decodes each shape from the file when it is accessed
+     */
+    public List<ShapeBase> getShapes() {
+        return shapes;
+    }
+
+    /**
+     * Check if a tile holds any painting
+     * Blank tiles are not stored in the file
+     */
+    public boolean hasTile(int index) {
+        return document.getData().getLong(tileIndexOffset + index * DocumentFormat.TILE_INDEX_ENTRY_SIZE) != 0;
+    }
+
+    /**
+     * Decode the pixels of one tile
+     * @return Packed RGB pixels row by row, premultiplied ARGB on a transparent layer,
+     *         or null if the tile is blank
+     */
+    public int[] readTile(int index) {
+        ByteBuffer data = document.getData();
+        int entry = tileIndexOffset + index * DocumentFormat.TILE_INDEX_ENTRY_SIZE;
+        long offset = data.getLong(entry);
+        int length = data.getInt(entry + 8);
+        if (offset == 0) {
+            return null;
+        }
+
+        Rectangle bounds = document.tileBounds(index);
+        byte[] compressed = new byte[length];
+        ByteBuffer slice = data.duplicate();
+        slice.position((int) offset);
+        slice.get(compressed);
+
+        byte[] raw = new byte[bounds.width * bounds.height * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // Truncated data; inflating again would never make progress
+                    break;
+                }
+                read += n;
+            }
+            if (read < raw.length) {
+                throw new IllegalStateException("Corrupt tile " + index + ": " + read + " of " + raw.length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt tile " + index, e);
+        } finally {
+            inflater.end();
+        }
+
+        int[] pixels = new int[bounds.width * bounds.height];
+        ByteBuffer.wrap(raw).asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * Draw the stored raster into a surface that has just been cleared
+     * The surface should be transparent if this layer is; only painted tiles
+     * are decoded, and anything outside the surface is skipped
+     */
+    public void renderRasterInto(TiledSurface surface) {
+        Rectangle surfaceBounds = surface.getBounds();
+
+        for (int i = 0; i < document.getTileCount(); i++) {
+            Rectangle bounds = document.tileBounds(i);
+            if (!hasTile(i) || !bounds.intersects(surfaceBounds)) {
+                continue;
+            }
+            int[] pixels = readTile(i);
+
+            // Copy in pieces that each fall within a single surface tile
+            Rectangle visible = bounds.intersection(surfaceBounds);
+            for (int y = visible.y; y < visible.y + visible.height; y = nextTileEdge(y)) {
+                int pieceHeight = Math.min(nextTileEdge(y), visible.y + visible.height) - y;
+                for (int x = visible.x; x < visible.x + visible.width; x = nextTileEdge(x)) {
+                    int pieceWidth = Math.min(nextTileEdge(x), visible.x + visible.width) - x;
+                    int[] piece = new int[pieceWidth * pieceHeight];
+                    for (int row = 0; row < pieceHeight; row++) {
+                        System.arraycopy(pixels, (y + row - bounds.y) * bounds.width + (x - bounds.x),
+                            piece, row * pieceWidth, pieceWidth);
+                    }
+                    surface.setPixels(new Rectangle(x, y, pieceWidth, pieceHeight), piece);
+                }
+            }
+        }
+    }
+
+    private static int nextTileEdge(int coordinate) {
+        return (coordinate / TiledSurface.TILE_SIZE + 1) * TiledSurface.TILE_SIZE;
+    }
+
+    /**
+     * Read-only list view over the fixed-size shape records
+     */
+    private class ShapeTable extends AbstractList<ShapeBase> {
+        private final int offset;
+        private final int count;
+
+        ShapeTable(int offset, int count) {
+            this.offset = offset;
+            this.count = count;
+        }
+
+        @Override
+        public ShapeBase get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Shape " + index + " of " + count);
+            }
+            return DocumentFormat.readShape(document.getData(), offset + index * DocumentFormat.SHAPE_RECORD_SIZE);
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
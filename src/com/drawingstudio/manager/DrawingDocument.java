@@ -0,0 +1,78 @@
+package com.drawingstudio.manager;
+
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A drawing opened from the native document format
+ * Holds the file's bytes in memory; shapes and raster tiles of each layer
+ * are decoded only when they are asked for
+ */
+public class DrawingDocument {
+    private final ByteBuffer data;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final List<DocumentLayer> layers = new ArrayList<>();
+
+    DrawingDocument(ByteBuffer data, int width, int height, int tileSize) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Add a layer above those added so far, while the document is read
+     */
+    void addLayer(String name, boolean vector, boolean visible, float opacity,
+                  int shapeTableOffset, int shapeCount, int tileIndexOffset) {
+        // Every layer but the bottom one is transparent
+        layers.add(new DocumentLayer(this, name, vector, visible, opacity, !layers.isEmpty(),
+            shapeTableOffset, shapeCount, tileIndexOffset));
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getTileSize() { return tileSize; }
+    public int getTileCount() { return columns * rows; }
+
+    /**
+     * Get the layers, bottom first
+     * Documents written before layers were stored have just the background
+     */
+    public List<DocumentLayer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * Get the number of shapes on every layer together
+     */
+    public int getShapeCount() {
+        int count = 0;
+        for (DocumentLayer layer : layers) {
+            count += layer.getShapes().size();
+        }
+        return count;
+    }
+
+    /**
+     * Get the document area covered by a tile
+     */
+    public Rectangle tileBounds(int index) {
+        int x = (index % columns) * tileSize;
+        int y = (index / columns) * tileSize;
+        return new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+    }
+
+    ByteBuffer getData() {
+        return data;
+    }
+}
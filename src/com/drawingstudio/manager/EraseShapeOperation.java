@@ -0,0 +1,31 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Shape removed from the drawing with the eraser
+ */
+public class EraseShapeOperation implements HistoryOperation {
+    private final int position;
+    
+    /**
+     * @param position Index of the erased shape in the shape list
+     */
+    public EraseShapeOperation(int position) {
+        this.position = position;
+    }
+    
+    @Override
+    public Rectangle apply(TiledSurface surface, List<ShapeBase> shapes) {
+        shapes.remove(position);
+        return null;
+    }
+    
+    @Override
+    public long getByteSize() {
+        return 16;
+    }
+}
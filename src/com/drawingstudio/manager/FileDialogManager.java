@@ -35,6 +35,10 @@ public class FileDialogManager {
     public static File showLoadDialog(Frame parent) {
         FileDialog fileDialog = new FileDialog(parent, "Load Drawing", FileDialog.LOAD);
         fileDialog.setFile("*.png");
+        fileDialog.setFilenameFilter((dir, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".png") || lower.endsWith(DocumentFormat.EXTENSION);
+        });
         fileDialog.setVisible(true);
         
         String filename = fileDialog.getFile();
@@ -1,82 +1,323 @@
 package com.drawingstudio.manager;
 
+import com.drawingstudio.render.TiledSurface;
 import com.drawingstudio.shapes.ShapeBase;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
+import com.drawingstudio.utils.FlightEvents;
+import com.drawingstudio.utils.PerformanceMonitor;
+import java.awt.EventQueue;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
 
 /**
  * Handles file operations for saving and loading drawings
+ * Files ending in .dsd use the native document format, which keeps layers
+ * and shapes editable; anything else is exported as a flattened PNG
  */
 public class FileManager {
-    
+
+    // Background saves run one at a time, in the order they were requested
+    private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "file-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Save drawing to file
      * @param file File to save to
-     * @param drawingImage The drawing image to save
+     * @param raster Tile snapshot of the drawing surface
      * @param shapes List of shapes to render on top
      * @return true if successful, false otherwise
      */
-    public static boolean saveToFile(File file, BufferedImage drawingImage, List<ShapeBase> shapes) {
+    public static boolean saveToFile(File file, RasterTiles raster, List<ShapeBase> shapes) {
+        return saveToFile(file, List.of(new LayerSnapshot(raster, shapes)));
+    }
+
+    /**
+     * Save a drawing with several layers to file
+     * @param file File to save to
+     * @param layers Snapshots of the layers, bottom first
+     * @return true if successful, false otherwise
+     */
+    public static boolean saveToFile(File file, List<LayerSnapshot> layers) {
+        long start = System.nanoTime();
+        FlightEvents.FileSave event = new FlightEvents.FileSave();
+        event.begin();
+        File target = withExtension(file);
         try {
-            // Create composite image with shapes
-            BufferedImage composite = new BufferedImage(
-                drawingImage.getWidth(), 
-                drawingImage.getHeight(), 
-                BufferedImage.TYPE_INT_RGB
-            );
-            
-            Graphics2D compG2d = composite.createGraphics();
-            compG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            
-            // Draw background
-            compG2d.drawImage(drawingImage, 0, 0, null);
-            
-            // Draw shapes on top
-            for (ShapeBase shape : shapes) {
-                shape.draw(compG2d);
-            }
-            
-            compG2d.dispose();
-            
-            // Ensure .png extension
-            String filename = file.getName().toLowerCase();
-            if (!filename.endsWith(".png")) {
-                file = new File(file.getParent(), file.getName() + ".png");
+            if (DocumentFormat.isNativeFile(target)) {
+                // The native format stores each layer's raster and shapes separately
+                writeAtomically(target, temp -> DocumentFormat.write(temp, layers));
+            } else {
+                // Composite the layers band by band while encoding
+                writeAtomically(target, temp -> encodePng(new CompositeImage(layers, 1.0), temp, target, null));
             }
-            
-            // Save as PNG
-            ImageIO.write(composite, "png", file);
-            System.out.println("Drawing saved to: " + file.getAbsolutePath());
+            PerformanceMonitor.recordSave((System.nanoTime() - start) / 1_000_000);
+            commitSave(event, target, shapeCount(layers), false, true);
+            System.out.println("Drawing saved to: " + target.getAbsolutePath());
             return true;
-            
+
         } catch (IOException e) {
+            commitSave(event, target, shapeCount(layers), false, false);
             System.out.println("Error saving file: " + e.getMessage());
             return false;
         }
     }
-    
+
+    /**
+     * Save drawing to file on a background thread
+     * The snapshot is immutable, so the canvas can keep drawing while this runs
+     * @param file File to save to
+     * @param raster Tile snapshot of the drawing surface
+     * @param shapes List of shapes to render on top; copied before returning
+     * @param listener Notified of progress and completion on the event dispatch thread
+     * @return Future that completes when the save has finished
+     */
+    public static Future<?> saveToFileAsync(File file, RasterTiles raster, List<ShapeBase> shapes, SaveListener listener) {
+        return saveToFileAsync(file, List.of(new LayerSnapshot(raster, shapes)), listener);
+    }
+
+    /**
+     * Save a drawing with several layers to file on a background thread
+     * Layer snapshots are immutable, so the canvas can keep drawing while this runs
+     * @param file File to save to
+     * @param layers Snapshots of the layers, bottom first
+     * @param listener Notified of progress and completion on the event dispatch thread
+     * @return Future that completes when the save has finished
+     */
+    public static Future<?> saveToFileAsync(File file, List<LayerSnapshot> layers, SaveListener listener) {
+        final File target = withExtension(file);
+        final List<LayerSnapshot> layerSnapshot = List.copyOf(layers);
+
+        return saveExecutor.submit(() -> {
+            long start = System.nanoTime();
+            FlightEvents.FileSave event = new FlightEvents.FileSave();
+            event.begin();
+            try {
+                if (DocumentFormat.isNativeFile(target)) {
+                    // The native format stores tiles and shapes as they are
+                    writeAtomically(target, temp -> DocumentFormat.write(temp, layerSnapshot));
+                } else {
+                    // Composite the layers off the event thread, band by band while encoding
+                    CompositeImage composite = new CompositeImage(layerSnapshot, 1.0);
+                    writeAtomically(target, temp -> encodePng(composite, temp, target, listener));
+                }
+
+                long elapsed = (System.nanoTime() - start) / 1_000_000;
+                PerformanceMonitor.recordSave(elapsed);
+                commitSave(event, target, shapeCount(layerSnapshot), true, true);
+                System.out.println("Drawing saved to: " + target.getAbsolutePath());
+                EventQueue.invokeLater(() -> listener.saveCompleted(target, elapsed));
+
+            } catch (IOException | RuntimeException e) {
+                commitSave(event, target, shapeCount(layerSnapshot), true, false);
+                System.out.println("Error saving file: " + e.getMessage());
+                EventQueue.invokeLater(() -> listener.saveFailed(target, e));
+            }
+        });
+    }
+
+    /**
+     * Render a native document straight to a PNG file, without a canvas
+     * Safe to call from several threads at once, e.g. for batch thumbnails
+     * @param source Native document to render
+     * @param target PNG file to write
+     * @param scale Size of the output relative to the document
+     * @return Number of bytes written
+     */
+    public static long exportDocument(File source, File target, double scale) throws IOException {
+        DrawingDocument document = DocumentFormat.read(source);
+        List<LayerSnapshot> layers = new ArrayList<>();
+        for (DocumentLayer layer : document.getLayers()) {
+            // Hidden layers are passed on undecoded, as the composite skips them
+            TiledSurface surface = new TiledSurface(document.getWidth(), document.getHeight(), layer.isTransparent());
+            if (layer.isVisible()) {
+                layer.renderRasterInto(surface);
+            }
+            // Decode the shapes once rather than on every band
+            layers.add(new LayerSnapshot(layer.getName(), layer.isVector(), layer.isVisible(), layer.getOpacity(),
+                RasterTiles.capture(surface), layer.isVisible() ? layer.getShapes() : List.of()));
+        }
+        CompositeImage composite = new CompositeImage(layers, scale);
+        writeAtomically(target, temp -> encodePng(composite, temp, target, null));
+        return target.length();
+    }
+
     /**
-     * Load drawing from file
+     * Open a drawing saved in the native format
      * @param file File to load from
-     * @return Loaded image, or null if failed
+     * @return Document, or null if failed
      */
-    public static BufferedImage loadFromFile(File file) {
+    public static DrawingDocument loadDocument(File file) {
+        FlightEvents.FileLoad event = new FlightEvents.FileLoad();
+        event.begin();
         try {
-            BufferedImage loadedImage = ImageIO.read(file);
-            if (loadedImage != null) {
-                System.out.println("Image loaded from: " + file.getAbsolutePath());
-                return loadedImage;
-            }
-            return null;
-            
+            DrawingDocument document = DocumentFormat.read(file);
+            commitLoad(event, file, document.getShapeCount(), true);
+            System.out.println("Document loaded from: " + file.getAbsolutePath());
+            return document;
+
         } catch (IOException e) {
+            commitLoad(event, file, 0, false);
             System.out.println("Error loading file: " + e.getMessage());
             return null;
         }
     }
+
+    private static int shapeCount(List<LayerSnapshot> layers) {
+        int count = 0;
+        for (LayerSnapshot layer : layers) {
+            count += layer.getShapes().size();
+        }
+        return count;
+    }
+
+    /**
+     * Fill in and commit a save event if a recording wants it
+     */
+    private static void commitSave(FlightEvents.FileSave event, File file, int shapeCount, boolean background, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.format = DocumentFormat.isNativeFile(file) ? "dsd" : "png";
+            event.background = background;
+            event.shapeCount = shapeCount;
+            event.bytes = succeeded ? file.length() : 0;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    /**
+     * Fill in and commit a load event if a recording wants it
+     */
+    static void commitLoad(FlightEvents.FileLoad event, File file, int shapeCount, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.format = DocumentFormat.isNativeFile(file) ? "dsd" : "image";
+            event.shapeCount = shapeCount;
+            event.bytes = file.length();
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ensure .png extension, unless the file is a native document
+     */
+    private static File withExtension(File file) {
+        String filename = file.getName().toLowerCase();
+        if (!filename.endsWith(".png") && !DocumentFormat.isNativeFile(file)) {
+            return new File(file.getParent(), file.getName() + ".png");
+        }
+        return file;
+    }
+
+    /**
+     * Something that writes a whole file
+     */
+    private interface FileWriteAction {
+        void write(File destination) throws IOException;
+    }
+
+    /**
+     * Write into a temporary file next to the target, then move it into place
+     * so a failed or interrupted save never leaves a half-written file behind
+     */
+    private static void writeAtomically(File file, FileWriteAction action) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            action.write(temp);
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Encode an image as PNG
+     * @param destination File the bytes go to
+     * @param file File reported to the listener
+     */
+    private static void encodePng(RenderedImage image, File destination, File file, SaveListener listener) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+        if (!writers.hasNext()) {
+            throw new IOException("No PNG writer available");
+        }
+        ImageWriter writer = writers.next();
+
+        if (listener != null) {
+            writer.addIIOWriteProgressListener(new ProgressForwarder(file, listener));
+        }
+
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(destination)) {
+            writer.setOutput(out);
+            writer.write(image);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Forwards encoder progress to a SaveListener on the event dispatch thread
+     * Only hops threads when the whole percentage changes
+     */
+    private static class ProgressForwarder implements IIOWriteProgressListener {
+        private final File file;
+        private final SaveListener listener;
+        private int lastReported = -1;
+
+        ProgressForwarder(File file, SaveListener listener) {
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            int percent = (int) percentageDone;
+            if (percent != lastReported) {
+                lastReported = percent;
+                EventQueue.invokeLater(() -> listener.saveProgress(file, percent));
+            }
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) { }
+
+        @Override
+        public void imageComplete(ImageWriter source) { }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) { }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) { }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) { }
+
+        @Override
+        public void writeAborted(ImageWriter source) { }
+    }
 }
@@ -0,0 +1,56 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Area filled with one color by the fill tool
+ * Only the filled runs of pixels are kept, so a fill costs a few bytes per
+ * row it covers however many pixels it changed
+ */
+public class FillOperation implements HistoryOperation {
+    private final int[] spans;
+    private final int rgb;
+    private final Rectangle bounds;
+
+    /**
+     * @param spans Filled runs as (y, startX, endX) triples, endX exclusive; copied
+     * @param count Number of triples to use
+     * @param rgb Fill color
+     */
+    public FillOperation(int[] spans, int count, int rgb) {
+        this.spans = Arrays.copyOf(spans, count * 3);
+        this.rgb = rgb;
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < this.spans.length; i += 3) {
+            minY = Math.min(minY, this.spans[i]);
+            maxY = Math.max(maxY, this.spans[i] + 1);
+            minX = Math.min(minX, this.spans[i + 1]);
+            maxX = Math.max(maxX, this.spans[i + 2]);
+        }
+        this.bounds = count == 0 ? new Rectangle() : new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    @Override
+    public Rectangle apply(TiledSurface surface, List<ShapeBase> shapes) {
+        surface.fillSpans(spans, spans.length / 3, rgb);
+        return new Rectangle(bounds);
+    }
+
+    @Override
+    public long getByteSize() {
+        return 48 + (long) spans.length * 4;
+    }
+
+    /**
+     * Get the area covered by the filled runs
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+}
@@ -1,119 +1,511 @@
 package com.drawingstudio.manager;
 
+import com.drawingstudio.render.TiledSurface;
 import com.drawingstudio.shapes.ShapeBase;
-import java.awt.image.BufferedImage;
-import java.awt.Graphics2D;
+import com.drawingstudio.utils.FlightEvents;
+import com.drawingstudio.utils.PerformanceMonitor;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Manages undo/redo history for the canvas
- * Stores both the drawing image and shapes list
+ *
+ * Every action is recorded as a small HistoryOperation. A full keyframe of
+ * the drawing surface and shapes is kept every few operations; undo restores the
+ * nearest keyframe and replays the operations after it, so undo depth is
+ * limited only by the memory budget and undo cost by the keyframe interval.
+ *
+ * Keyframe rasters are stored as tiles. The canvas reports which areas it
+ * draws into with markDirty, and each keyframe copies only those tiles and
+ * shares the rest with the previous one.
+ *
+ * History is limited by a byte budget rather than a step count. In
+ * compressed mode keyframe tiles are deflated on a background thread, and
+ * when the JVM reports heap pressure the oldest keyframes are evicted
+ * straight away, on the thread that owns the history.
+ * Both can be configured with the drawingstudio.history.compress and
+ * drawingstudio.history.budgetMB system properties.
  */
 public class HistoryManager {
-    
+
     /**
-     * Represents a saved state of the canvas
+     * Represents a saved state of the canvas (a keyframe)
      */
     public static class CanvasState {
-        private BufferedImage image;
+        private int position;
+        private RasterTiles tiles;
         private List<ShapeBase> shapes;
-        
-        public CanvasState(BufferedImage img, List<ShapeBase> shapeList) {
-            // Deep copy the image
-            this.image = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
-            Graphics2D g = this.image.createGraphics();
-            g.drawImage(img, 0, 0, null);
-            g.dispose();
-            
-            // Deep copy the shapes list
+
+        /**
+         * @param position Number of operations applied when this state was taken
+         */
+        public CanvasState(int position, RasterTiles tiles, List<ShapeBase> shapeList) {
+            this.position = position;
+            this.tiles = tiles;
+
+            // Copy the shapes list; the shapes themselves are immutable
             this.shapes = new ArrayList<>(shapeList);
         }
-        
-        public BufferedImage getImage() { 
-            return image; 
+
+        public int getPosition() {
+            return position;
         }
-        
-        public List<ShapeBase> getShapes() { 
-            return new ArrayList<>(shapes); 
+
+        public RasterTiles getTiles() {
+            return tiles;
+        }
+
+        public List<ShapeBase> getShapes() {
+            return new ArrayList<>(shapes);
+        }
+
+        private int getShapeCount() {
+            return shapes.size();
         }
     }
-    
-    private List<CanvasState> undoHistory;
-    private List<CanvasState> redoHistory;
-    private static final int MAX_UNDO_STEPS = 10;
-    
+
+    private static final int KEYFRAME_INTERVAL = 20;
+    private static final long DEFAULT_BUDGET_MB = 64;
+
+    // Shared background thread for deflating keyframe tiles
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-compressor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private List<HistoryOperation> operations;
+    private List<CanvasState> keyframes;
+    private int basePosition;   // Position of the first stored operation
+    private int cursor;         // Number of operations currently applied
+
+    // Memory accounting
+    private long memoryBudget;
+    private boolean compressionEnabled;
+    private long keyframeBytes;
+    private long keyframeRawBytes;
+    private long operationBytes;
+    private volatile boolean accountingStale = false;
+    private final Runnable pressureListener;
+
+    // Number of references from stored keyframes to each distinct tile
+    private final Map<RasterTile, Integer> tileReferences = new IdentityHashMap<>();
+
+    // Tiles matching the surface as of the last sync, plus the tiles drawn on since
+    private RasterTiles baseline;
+    private boolean[] dirtyTiles;
+
+    /**
+     * Create a history used on the event dispatch thread
+     */
     public HistoryManager() {
-        undoHistory = new ArrayList<>();
-        redoHistory = new ArrayList<>();
+        this(EventQueue::invokeLater);
+    }
+
+    /**
+     * @param owner Runs work on the thread that uses this history, e.g. evicting
+     *              keyframes when the heap comes under pressure
+     */
+    public HistoryManager(Executor owner) {
+        operations = new ArrayList<>();
+        keyframes = new ArrayList<>();
+        memoryBudget = Long.getLong("drawingstudio.history.budgetMB", DEFAULT_BUDGET_MB) * 1024 * 1024;
+        compressionEnabled = Boolean.getBoolean("drawingstudio.history.compress");
+
+        // Give back half the budget while the heap is under pressure
+        pressureListener = () -> owner.execute(() -> enforceBudget(memoryBudget / 2));
+        MemoryPressureMonitor.addListener(pressureListener);
+    }
+
+    /**
+     * Stop listening for memory pressure once this history is no longer used
+     */
+    public void dispose() {
+        MemoryPressureMonitor.removeListener(pressureListener);
+    }
+
+    /**
+     * Drop all history and start over from the given state
+     * Must be called once before anything is recorded
+     */
+    public void reset(TiledSurface surface, List<ShapeBase> shapes) {
+        operations.clear();
+        keyframes.clear();
+        tileReferences.clear();
+        keyframeBytes = 0;
+        keyframeRawBytes = 0;
+        basePosition = 0;
+        cursor = 0;
+        operationBytes = 0;
+
+        baseline = null;
+        addKeyframe(new CanvasState(0, snapshotSurface(surface), shapes));
     }
-    
+
     /**
-     * Save current state for undo functionality
+     * Record that the canvas drew into a region of the surface
+     * Must be called for every change to the surface so keyframes stay correct
      */
-    public void saveState(BufferedImage image, List<ShapeBase> shapes) {
-        if (undoHistory.size() >= MAX_UNDO_STEPS) {
-            undoHistory.remove(0);
+    public void markDirty(Rectangle region) {
+        if (baseline == null) {
+            return; // The first snapshot copies every tile anyway
         }
-        
-        CanvasState currentState = new CanvasState(image, shapes);
-        undoHistory.add(currentState);
-        
+        int[] range = RasterTiles.tileRange(region, baseline.getWidth(), baseline.getHeight());
+        if (range == null) {
+            return;
+        }
+        int columns = baseline.getColumns();
+        for (int row = range[1]; row <= range[3]; row++) {
+            for (int col = range[0]; col <= range[2]; col++) {
+                dirtyTiles[row * columns + col] = true;
+            }
+        }
+    }
+
+    /**
+     * Record an action the canvas has just performed
+     * @param surface The drawing surface after the action
+     * @param shapes The shapes after the action
+     */
+    public void record(HistoryOperation operation, TiledSurface surface, List<ShapeBase> shapes) {
+        long start = System.nanoTime();
+        FlightEvents.History event = new FlightEvents.History();
+        event.begin();
+
         // Clear redo history when new action is performed
-        redoHistory.clear();
+        List<HistoryOperation> undone = operations.subList(cursor - basePosition, operations.size());
+        for (HistoryOperation op : undone) {
+            operationBytes -= op.getByteSize();
+        }
+        undone.clear();
+        while (lastKeyframe().getPosition() > cursor) {
+            removeKeyframe(keyframes.size() - 1);
+        }
+
+        operations.add(operation);
+        operationBytes += operation.getByteSize();
+        cursor++;
+
+        if (operation.requiresKeyframe() || cursor - lastKeyframe().getPosition() >= KEYFRAME_INTERVAL) {
+            CanvasState keyframe = new CanvasState(cursor, snapshotSurface(surface), shapes);
+            addKeyframe(keyframe);
+            if (compressionEnabled) {
+                compressInBackground(keyframe.getTiles());
+            }
+        }
+
+        enforceBudget(memoryBudget);
+        PerformanceMonitor.getHistoryTimes().recordSince(start);
+        commitEvent(event, "record", operation, shapes);
     }
-    
+
     /**
      * Undo last action
-     * @return Previous state, or null if no undo available
+     * The surface and shapes are rolled back in place, touching only the tiles that differ
+     * @return true if an action was undone
      */
-    public CanvasState undo(BufferedImage currentImage, List<ShapeBase> currentShapes) {
-        if (!undoHistory.isEmpty()) {
-            // Save current state to redo history
-            CanvasState currentState = new CanvasState(currentImage, currentShapes);
-            redoHistory.add(currentState);
-            
-            // Return previous state
-            return undoHistory.remove(undoHistory.size() - 1);
+    public boolean undo(TiledSurface surface, List<ShapeBase> shapes) {
+        if (!canUndo()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        FlightEvents.History event = new FlightEvents.History();
+        event.begin();
+
+        int target = cursor - 1;
+        CanvasState keyframe = keyframes.get(0);
+        for (CanvasState state : keyframes) {
+            if (state.getPosition() > target) {
+                break;
+            }
+            keyframe = state;
         }
-        return null;
+
+        // Restore the keyframe, then replay forward to the target
+        restoreKeyframe(keyframe, surface, shapes);
+        for (int position = keyframe.getPosition(); position < target; position++) {
+            applyOperation(position, surface, shapes);
+        }
+        cursor = target;
+        PerformanceMonitor.getHistoryTimes().recordSince(start);
+        commitEvent(event, "undo", operations.get(target - basePosition), shapes);
+        return true;
     }
-    
+
     /**
      * Redo previously undone action
-     * @return Next state, or null if no redo available
+     * @return true if an action was redone
      */
-    public CanvasState redo(BufferedImage currentImage, List<ShapeBase> currentShapes) {
-        if (!redoHistory.isEmpty()) {
-            // Save current state to undo history
-            CanvasState currentState = new CanvasState(currentImage, currentShapes);
-            undoHistory.add(currentState);
-            
-            // Return next state
-            return redoHistory.remove(redoHistory.size() - 1);
+    public boolean redo(TiledSurface surface, List<ShapeBase> shapes) {
+        if (!canRedo()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        FlightEvents.History event = new FlightEvents.History();
+        event.begin();
+        if (operations.get(cursor - basePosition).requiresKeyframe()) {
+            // The keyframe taken right after the operation holds its result
+            restoreKeyframe(keyframeAt(cursor + 1), surface, shapes);
+        } else {
+            applyOperation(cursor, surface, shapes);
         }
-        return null;
+        cursor++;
+        PerformanceMonitor.getHistoryTimes().recordSince(start);
+        commitEvent(event, "redo", operations.get(cursor - 1 - basePosition), shapes);
+        return true;
     }
-    
+
     /**
      * Check if undo is available
      */
     public boolean canUndo() {
-        return !undoHistory.isEmpty();
+        return cursor > keyframes.get(0).getPosition();
     }
-    
+
     /**
      * Check if redo is available
      */
     public boolean canRedo() {
-        return !redoHistory.isEmpty();
+        return cursor < basePosition + operations.size();
+    }
+
+    /**
+     * Get the number of actions that can currently be undone
+     */
+    public int getUndoCount() {
+        return cursor - keyframes.get(0).getPosition();
+    }
+
+    /**
+     * Get the number of actions that can currently be redone
+     */
+    public int getRedoCount() {
+        return basePosition + operations.size() - cursor;
+    }
+
+    /**
+     * Get the memory held by keyframes and operations, counting shared tiles once
+     */
+    public long getHistoryBytes() {
+        if (accountingStale) {
+            updateKeyframeBytes();
+        }
+        return keyframeBytes + operationBytes;
     }
-    
+
+    /**
+     * Get how much smaller keyframe rasters are than they would be uncompressed
+     * @return Ratio of raw to stored bytes; 1.0 when nothing is compressed
+     */
+    public double getCompressionRatio() {
+        if (accountingStale) {
+            updateKeyframeBytes();
+        }
+        return keyframeBytes == 0 ? 1.0 : (double) keyframeRawBytes / keyframeBytes;
+    }
+
+    /**
+     * Set the maximum memory history may use before old keyframes are dropped
+     */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        enforceBudget(memoryBudget);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Switch between raw and background-compressed keyframe storage
+     * Enabling compression also compresses the keyframes already stored
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compressionEnabled = enabled;
+        if (enabled) {
+            for (CanvasState keyframe : keyframes) {
+                compressInBackground(keyframe.getTiles());
+            }
+        }
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Get a tile snapshot of the surface, copying only tiles drawn on since the last one
+     * The result is immutable and cheap to keep, e.g. for a background save
+     */
+    public RasterTiles snapshotSurface(TiledSurface surface) {
+        FlightEvents.HistorySnapshot event = new FlightEvents.HistorySnapshot();
+        event.begin();
+        boolean full = baseline == null || !baseline.isCompatible(surface);
+        if (full) {
+            baseline = RasterTiles.capture(surface);
+            dirtyTiles = new boolean[RasterTiles.tileCount(surface.getWidth(), surface.getHeight())];
+        } else {
+            baseline = baseline.update(surface, dirtyTiles);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tileCount = dirtyTiles.length;
+            for (int i = 0; i < dirtyTiles.length; i++) {
+                if (full || dirtyTiles[i]) {
+                    Rectangle tile = baseline.tileBounds(i);
+                    event.copiedTiles++;
+                    event.copiedBytes += (long) tile.width * tile.height * 4;
+                }
+            }
+            event.commit();
+        }
+        Arrays.fill(dirtyTiles, false);
+        return baseline;
+    }
+
+    /**
+     * Fill in and commit a history event if a recording wants it
+     */
+    private void commitEvent(FlightEvents.History event, String action, HistoryOperation operation, List<ShapeBase> shapes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.operation = operation.getClass().getSimpleName();
+            event.position = cursor;
+            event.shapeCount = shapes.size();
+            event.historyBytes = getHistoryBytes();
+            event.commit();
+        }
+    }
+
     /**
-     * Clear all history
+     * Make the surface and shapes match a keyframe, touching only the tiles that differ
      */
-    public void clear() {
-        undoHistory.clear();
-        redoHistory.clear();
+    private void restoreKeyframe(CanvasState keyframe, TiledSurface surface, List<ShapeBase> shapes) {
+        keyframe.getTiles().restoreInto(surface, baseline, dirtyTiles);
+        baseline = keyframe.getTiles();
+        Arrays.fill(dirtyTiles, false);
+        shapes.clear();
+        shapes.addAll(keyframe.shapes);
+    }
+
+    private CanvasState keyframeAt(int position) {
+        for (CanvasState state : keyframes) {
+            if (state.getPosition() == position) {
+                return state;
+            }
+        }
+        throw new IllegalStateException("No keyframe at " + position);
+    }
+
+    private void applyOperation(int position, TiledSurface surface, List<ShapeBase> shapes) {
+        Rectangle dirty = operations.get(position - basePosition).apply(surface, shapes);
+        if (dirty != null) {
+            markDirty(dirty);
+        }
+    }
+
+    private CanvasState lastKeyframe() {
+        return keyframes.get(keyframes.size() - 1);
+    }
+
+    private void compressInBackground(RasterTiles tiles) {
+        compressor.execute(() -> {
+            boolean changed = false;
+            for (int i = 0; i < tiles.getColumns() * tiles.getRows(); i++) {
+                RasterTile tile = tiles.getTile(i);
+                if (!tile.isCompressed() && tile.compress()) {
+                    changed = true;
+                }
+            }
+            if (changed) {
+                accountingStale = true;
+            }
+        });
+    }
+
+    /**
+     * Forget the oldest keyframe and its operations until history fits the budget
+     */
+    private void enforceBudget(long budget) {
+        while (getHistoryBytes() > budget && keyframes.size() > 1) {
+            CanvasState next = keyframes.get(1);
+            if (next.getPosition() > cursor) {
+                break; // The current state still depends on the oldest keyframe
+            }
+
+            List<HistoryOperation> dropped = operations.subList(0, next.getPosition() - basePosition);
+            for (HistoryOperation op : dropped) {
+                operationBytes -= op.getByteSize();
+            }
+            dropped.clear();
+            basePosition = next.getPosition();
+            removeKeyframe(0);
+        }
+    }
+
+    /**
+     * Store a keyframe, counting only the tiles no other keyframe shares
+     */
+    private void addKeyframe(CanvasState keyframe) {
+        keyframes.add(keyframe);
+        RasterTiles tiles = keyframe.getTiles();
+        for (int i = 0; i < tiles.getColumns() * tiles.getRows(); i++) {
+            RasterTile tile = tiles.getTile(i);
+            if (tileReferences.merge(tile, 1, Integer::sum) == 1) {
+                keyframeBytes += tile.getByteSize();
+                keyframeRawBytes += tile.getRawByteSize();
+            }
+        }
+        keyframeBytes += (long) keyframe.getShapeCount() * 8;
+        keyframeRawBytes += (long) keyframe.getShapeCount() * 8;
+    }
+
+    /**
+     * Drop a keyframe, releasing the tiles no other keyframe shares
+     */
+    private void removeKeyframe(int index) {
+        CanvasState keyframe = keyframes.remove(index);
+        RasterTiles tiles = keyframe.getTiles();
+        for (int i = 0; i < tiles.getColumns() * tiles.getRows(); i++) {
+            RasterTile tile = tiles.getTile(i);
+            int references = tileReferences.get(tile);
+            if (references == 1) {
+                tileReferences.remove(tile);
+                keyframeBytes -= tile.getByteSize();
+                keyframeRawBytes -= tile.getRawByteSize();
+            } else {
+                tileReferences.put(tile, references - 1);
+            }
+        }
+        keyframeBytes -= (long) keyframe.getShapeCount() * 8;
+        keyframeRawBytes -= (long) keyframe.getShapeCount() * 8;
+    }
+
+    /**
+     * Recount keyframe memory after background compression changed tile sizes
+     */
+    private void updateKeyframeBytes() {
+        accountingStale = false;
+        long bytes = 0;
+        for (CanvasState state : keyframes) {
+            bytes += (long) state.getShapeCount() * 8;
+        }
+        long rawBytes = bytes;
+        for (RasterTile tile : tileReferences.keySet()) {
+            bytes += tile.getByteSize();
+            rawBytes += tile.getRawByteSize();
+        }
+        keyframeBytes = bytes;
+        keyframeRawBytes = rawBytes;
     }
 }
@@ -0,0 +1,35 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * A single user action recorded in the history log
+ * Operations are replayed forward from a keyframe to rebuild a past state,
+ * so applying one must always give the same result as the original action
+ */
+public interface HistoryOperation {
+    
+    /**
+     * Apply this operation to the drawing
+     * @return Region of the surface that was drawn into, or null if only shapes changed
+     */
+    Rectangle apply(TiledSurface surface, List<ShapeBase> shapes);
+    
+    /**
+     * Get the approximate memory held by this operation
+     */
+    long getByteSize();
+    
+    /**
+     * Check if a keyframe should be taken right after this operation
+     * Used for operations that are expensive or impossible to replay cheaply.
+     * Such an operation is never replayed once recorded: its keyframe is
+     * restored instead, so apply need not be able to redo it.
+     */
+    default boolean requiresKeyframe() {
+        return false;
+    }
+}
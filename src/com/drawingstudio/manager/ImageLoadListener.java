@@ -0,0 +1,42 @@
+package com.drawingstudio.manager;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * Receives the stages of a progressive image load
+ * All methods are called on the AWT event dispatch thread
+ */
+public interface ImageLoadListener {
+    
+    /**
+     * Called once the file has been opened and its size is known, before any pixels arrive
+     * @param region Area of the canvas that will be filled
+     */
+    void loadStarted(File file, Rectangle region);
+    
+    /**
+     * Called first, if the file has an embedded thumbnail, with that thumbnail
+     * @param preview Image to be scaled up to cover region
+     * @param region Area the preview stands in for: the whole image, which may extend past the canvas
+     */
+    void previewLoaded(BufferedImage preview, Rectangle region);
+    
+    /**
+     * Called for each full-resolution band as it is decoded
+     * @param pixels Decoded pixels, drawn unscaled at region's origin
+     * @param region Area of the canvas the pixels cover
+     */
+    void regionLoaded(BufferedImage pixels, Rectangle region);
+    
+    /**
+     * Called after every visible region has been decoded
+     */
+    void loadCompleted(File file, long elapsedMillis);
+    
+    /**
+     * Called if the file could not be opened or decoding stopped part way
+     */
+    void loadFailed(File file, Exception error);
+}
@@ -0,0 +1,55 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.shapes.ShapeBase;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of one layer of a drawing, taken for saving
+ * Saves read it on a background thread while the canvas keeps drawing
+ */
+public class LayerSnapshot {
+    private final String name;
+    private final boolean vector;
+    private final boolean visible;
+    private final float opacity;
+    private final RasterTiles raster;
+    private final List<ShapeBase> shapes;
+
+    /**
+     * @param vector True for a layer of shapes only, whose raster is never painted
+     * @param raster Tile snapshot of the layer's surface; transparent for every layer but the bottom one
+     * @param shapes Shapes, bottom to top; copied
+     */
+    public LayerSnapshot(String name, boolean vector, boolean visible, float opacity,
+                         RasterTiles raster, List<ShapeBase> shapes) {
+        this.name = name;
+        this.vector = vector;
+        this.visible = visible;
+        this.opacity = opacity;
+        this.raster = raster;
+        this.shapes = new ArrayList<>(shapes);
+    }
+
+    /**
+     * Snapshot of a drawing that has just the one, fully shown, layer
+     */
+    public LayerSnapshot(RasterTiles raster, List<ShapeBase> shapes) {
+        this("Background", false, true, 1f, raster, shapes);
+    }
+
+    /**
+     * Check if the layer shows in the flattened drawing at all
+     */
+    public boolean isShown() {
+        return visible && opacity > 0f;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public boolean isVector() { return vector; }
+    public boolean isVisible() { return visible; }
+    public float getOpacity() { return opacity; }
+    public RasterTiles getRaster() { return raster; }
+    public List<ShapeBase> getShapes() { return shapes; }
+}
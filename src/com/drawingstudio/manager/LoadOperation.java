@@ -0,0 +1,30 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Drawing loaded from a file, replacing the current one
+ * The loaded tiles and shapes live only in the keyframe history takes right
+ * after this operation, which redo restores, so a load is copied once and
+ * replay never touches the disk
+ */
+public class LoadOperation implements HistoryOperation {
+
+    @Override
+    public Rectangle apply(TiledSurface surface, List<ShapeBase> shapes) {
+        throw new IllegalStateException("A load is restored from its keyframe, never replayed");
+    }
+
+    @Override
+    public long getByteSize() {
+        return 16;
+    }
+
+    @Override
+    public boolean requiresKeyframe() {
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package com.drawingstudio.manager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.NotificationEmitter;
+
+/**
+ * Watches the old-generation heap pool and notifies listeners when live
+ * data after a collection crosses a usage threshold
+ * Lets caches and history give memory back before the heap fills up
+ */
+public class MemoryPressureMonitor {
+    private static final double USAGE_THRESHOLD = 0.75;
+
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private static boolean installed = false;
+
+    /**
+     * Register a callback for memory pressure
+     * Callbacks run on a JMX notification thread and should only set a flag
+     * or hand the work to the thread that owns the memory
+     */
+    public static synchronized void addListener(Runnable listener) {
+        install();
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+
+        boolean armed = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                // Only set a threshold if nobody else has
+                if (pool.getCollectionUsageThreshold() == 0) {
+                    pool.setCollectionUsageThreshold((long) (max * USAGE_THRESHOLD));
+                }
+                armed = true;
+            }
+        }
+        if (!armed) {
+            return;
+        }
+
+        NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        emitter.addNotificationListener((notification, handback) -> {
+            String type = notification.getType();
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)
+                    || MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)) {
+                for (Runnable listener : listeners) {
+                    listener.run();
+                }
+            }
+        }, null, null);
+    }
+}
@@ -0,0 +1,231 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.utils.FlightEvents;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Loads images band by band on a background thread
+ *
+ * Only the part of the image that fits on the canvas is decoded, in a single
+ * sequential pass, and each band of rows is handed over as soon as the
+ * decoder has finished it. Bands on screen are handed over in small steps
+ * so the view fills in smoothly; those off screen in larger ones. An
+ * embedded thumbnail, if the file has one, is shown first as a preview.
+ * The event thread is never blocked.
+ */
+public class ProgressiveImageLoader {
+    private static final int BAND_HEIGHT = 256;
+    private static final int VISIBLE_BAND_HEIGHT = 32;
+
+    private static final ExecutorService loadExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "image-load");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Incremented for every load; older loads stop when they see a newer one
+    private volatile int generation = 0;
+
+    /**
+     * Start loading an image, cancelling any load still in progress
+     * @param file File to read
+     * @param area Area of the image to load, in image coordinates
+     * @param visible Part of area currently on screen
+     * @param listener Notified on the event dispatch thread
+     */
+    public void load(File file, Rectangle area, Rectangle visible, ImageLoadListener listener) {
+        final int myGeneration = ++generation;
+        final Rectangle wanted = new Rectangle(area);
+        final Rectangle onScreen = new Rectangle(visible);
+
+        loadExecutor.execute(() -> {
+            long start = System.nanoTime();
+            FlightEvents.FileLoad event = new FlightEvents.FileLoad();
+            event.begin();
+            try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+                ImageReader reader = createReader(input, file);
+                try {
+                    reader.setInput(input, false, false);
+                    Rectangle image = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+                    Rectangle region = wanted.intersection(image);
+                    finish(myGeneration, () -> listener.loadStarted(file, new Rectangle(region)));
+                    if (region.isEmpty()) {
+                        FileManager.commitLoad(event, file, 0, true);
+                        finish(myGeneration, () -> listener.loadCompleted(file, elapsedMillis(start)));
+                        return;
+                    }
+
+                    // Embedded thumbnails, e.g. in JPEG files, cost next to nothing to read
+                    if (reader.readerSupportsThumbnails() && reader.hasThumbnails(0)) {
+                        BufferedImage thumbnail = reader.readThumbnail(0, 0);
+                        finish(myGeneration, () -> listener.previewLoaded(thumbnail, new Rectangle(image)));
+                    }
+
+                    // Full resolution, handed over band by band while the decoder works down the image
+                    BandPublisher publisher = new BandPublisher(myGeneration, reader, region, onScreen, listener);
+                    reader.addIIOReadUpdateListener(publisher);
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(region);
+                    BufferedImage pixels = reader.read(0, param);
+                    if (myGeneration != generation) {
+                        // Superseded; the load event is dropped rather than recorded as a failure
+                        return;
+                    }
+                    publisher.finishImage(pixels);
+
+                    FileManager.commitLoad(event, file, 0, true);
+                    finish(myGeneration, () -> listener.loadCompleted(file, elapsedMillis(start)));
+                } finally {
+                    reader.dispose();
+                }
+
+            } catch (IOException | RuntimeException e) {
+                FileManager.commitLoad(event, file, 0, false);
+                System.out.println("Error loading file: " + e.getMessage());
+                finish(myGeneration, () -> listener.loadFailed(file, e));
+            }
+        });
+    }
+
+    /**
+     * Stop delivering results of the load in progress, if any
+     */
+    public void cancel() {
+        generation++;
+    }
+
+    private static ImageReader createReader(ImageInputStream input, File file) throws IOException {
+        if (input == null) {
+            throw new IOException("Cannot open " + file.getName());
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + file.getName());
+        }
+        return readers.next();
+    }
+
+    /**
+     * Run a callback on the event thread unless a newer load has started meanwhile
+     */
+    private void finish(int myGeneration, Runnable callback) {
+        EventQueue.invokeLater(() -> {
+            if (myGeneration == generation) {
+                callback.run();
+            }
+        });
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Hands rows to the listener as the reader finishes them
+     *
+     * Bands are views of the image the reader decodes into, so no pixels are
+     * copied here. Interlaced and progressive images revisit rows in later
+     * passes; their rows are handed over again once the reader is done.
+     */
+    private class BandPublisher implements IIOReadUpdateListener {
+        private final int myGeneration;
+        private final ImageReader reader;
+        private final Rectangle region;
+        private final Rectangle visible;
+        private final ImageLoadListener listener;
+
+        private int published = 0;   // Rows of region handed over so far
+        private int decoded = 0;     // Rows of region finished by the decoder
+        private int passes = 0;
+        private boolean sequential = true;
+
+        BandPublisher(int myGeneration, ImageReader reader, Rectangle region, Rectangle visible, ImageLoadListener listener) {
+            this.myGeneration = myGeneration;
+            this.reader = reader;
+            this.region = region;
+            this.visible = visible;
+            this.listener = listener;
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+            if (++passes > 1) {
+                // This pass refines rows already handed over
+                sequential = false;
+                published = 0;
+            }
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            if (myGeneration != generation) {
+                reader.abort();
+                return;
+            }
+            if (periodX != 1 || periodY != 1) {
+                sequential = false;
+            }
+            if (!sequential) {
+                return;
+            }
+            decoded = Math.max(decoded, minY + height);
+            if (decoded - published >= bandHeightAt(published) || decoded == region.height) {
+                publish(theImage, decoded);
+            }
+        }
+
+        /**
+         * Hand over the rows not handed over yet, once the reader is done
+         */
+        void finishImage(BufferedImage image) {
+            if (published < region.height) {
+                publish(image, region.height);
+            }
+        }
+
+        private int bandHeightAt(int row) {
+            int y = region.y + row;
+            boolean onScreen = y < visible.y + visible.height && y + BAND_HEIGHT > visible.y;
+            return onScreen ? VISIBLE_BAND_HEIGHT : BAND_HEIGHT;
+        }
+
+        private void publish(BufferedImage image, int end) {
+            BufferedImage pixels = image.getSubimage(0, published, region.width, end - published);
+            Rectangle band = new Rectangle(region.x, region.y + published, region.width, end - published);
+            finish(myGeneration, () -> listener.regionLoaded(pixels, band));
+            published = end;
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.drawingstudio.manager;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One rectangular block of pixels copied out of the drawing surface
+ * Tiles are never modified after creation, so unchanged tiles can be
+ * shared between any number of history states
+ *
+ * A tile can be compressed in the background; its pixels are then
+ * inflated again whenever they are read.
+ */
+public class RasterTile {
+    private final int width;
+    private final int height;
+
+    // Exactly one of these is set; compressed is written before pixels is dropped
+    private volatile int[] pixels;
+    private volatile byte[] compressed;
+
+    public RasterTile(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /**
+     * Get the packed RGB pixels, row by row
+     * Callers must not modify the returned array
+     */
+    public int[] getPixels() {
+        int[] current = pixels;
+        if (current != null) {
+            return current;
+        }
+        return inflate(compressed);
+    }
+
+    /**
+     * Deflate the pixels, keeping the result only if it is smaller
+     * Safe to call from a background thread
+     * @return true if the tile is now stored compressed
+     */
+    public synchronized boolean compress() {
+        int[] current = pixels;
+        if (current == null) {
+            return true;
+        }
+
+        ByteBuffer raw = ByteBuffer.allocate(current.length * 4);
+        raw.asIntBuffer().put(current);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        byte[] buffer = new byte[raw.capacity()];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        boolean smaller = deflater.finished() && length < buffer.length;
+        deflater.end();
+
+        if (!smaller) {
+            return false;
+        }
+        byte[] data = new byte[length];
+        System.arraycopy(buffer, 0, data, 0, length);
+        compressed = data;
+        pixels = null;
+        return true;
+    }
+
+    public boolean isCompressed() {
+        return pixels == null;
+    }
+
+    /**
+     * Get the memory currently used by the pixel data
+     */
+    public long getByteSize() {
+        int[] current = pixels;
+        return current != null ? (long) current.length * 4 : compressed.length;
+    }
+
+    /**
+     * Get the memory the pixel data would use uncompressed
+     */
+    public long getRawByteSize() {
+        return (long) width * height * 4;
+    }
+
+    private int[] inflate(byte[] data) {
+        byte[] raw = new byte[width * height * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        try {
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt history tile", e);
+        } finally {
+            inflater.end();
+        }
+
+        int[] result = new int[width * height];
+        ByteBuffer.wrap(raw).asIntBuffer().get(result);
+        return result;
+    }
+}
@@ -0,0 +1,196 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.render.TiledSurface;
+import java.awt.Rectangle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of a drawing surface split into fixed-size tiles
+ * New snapshots copy only the tiles that changed and share the rest
+ * with the snapshot they were derived from
+ */
+public class RasterTiles {
+    public static final int TILE_SIZE = 64;
+
+    // One shared tile per size and surface kind for areas that were never painted
+    private static final Map<Long, RasterTile> blankTiles = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final RasterTile[] tiles;
+    private final boolean transparent;
+
+    private RasterTiles(int width, int height, RasterTile[] tiles, boolean transparent) {
+        this.width = width;
+        this.height = height;
+        this.transparent = transparent;
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Copy every tile of a surface
+     * Unpainted and single-color tiles are shared, so a blank surface costs almost nothing
+     */
+    public static RasterTiles capture(TiledSurface surface) {
+        int width = surface.getWidth();
+        int height = surface.getHeight();
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        RasterTiles snapshot = new RasterTiles(width, height, new RasterTile[columns * rows], surface.isTransparent());
+        RasterTile lastUniform = null;
+        for (int i = 0; i < snapshot.tiles.length; i++) {
+            RasterTile tile = snapshot.copyTile(surface, i);
+            if (!isBlankTile(tile) && isUniform(tile)) {
+                if (lastUniform != null && lastUniform.getWidth() == tile.getWidth()
+                        && lastUniform.getHeight() == tile.getHeight()
+                        && lastUniform.getPixels()[0] == tile.getPixels()[0]) {
+                    tile = lastUniform;
+                } else {
+                    lastUniform = tile;
+                }
+            }
+            snapshot.tiles[i] = tile;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Create a new snapshot of the surface, copying only the dirty tiles
+     * @param surface Surface with the same size as this snapshot
+     * @param dirty Tiles changed since this snapshot was taken, indexed row by row
+     */
+    public RasterTiles update(TiledSurface surface, boolean[] dirty) {
+        RasterTile[] updated = tiles.clone();
+        for (int i = 0; i < updated.length; i++) {
+            if (dirty[i]) {
+                updated[i] = copyTile(surface, i);
+            }
+        }
+        return new RasterTiles(width, height, updated, transparent);
+    }
+
+    /**
+     * Write this snapshot back into a surface
+     * @param surface Surface with the same size as this snapshot
+     * @param current Snapshot matching the surface's current content; tiles shared
+     *                with it are skipped. Pass null to write every tile.
+     */
+    public void restoreInto(TiledSurface surface, RasterTiles current) {
+        restoreInto(surface, current, null);
+    }
+
+    /**
+     * Write this snapshot back into a surface
+     * Blank tiles only reset pixels that were painted; they never allocate surface memory
+     * @param current Snapshot the surface was last synced with, or null to write every tile
+     * @param dirty Tiles drawn on since the surface matched current; these are always written.
+     *              May be null if the surface matches current exactly.
+     */
+    public void restoreInto(TiledSurface surface, RasterTiles current, boolean[] dirty) {
+        boolean comparable = current != null && current.isCompatible(surface);
+        for (int i = 0; i < tiles.length; i++) {
+            if (comparable && current.tiles[i] == tiles[i] && (dirty == null || !dirty[i])) {
+                continue;
+            }
+            Rectangle r = tileBounds(i);
+            if (isBlankTile(tiles[i])) {
+                surface.clearPixels(r);
+            } else {
+                surface.setPixels(r, tiles[i].getPixels());
+            }
+        }
+    }
+
+    /**
+     * Get the tile indices covered by a region, clamped to the surface
+     * @return {firstColumn, firstRow, lastColumn, lastRow}, or null if the region is outside
+     */
+    public static int[] tileRange(Rectangle region, int width, int height) {
+        Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            return null;
+        }
+        return new int[] {
+            clipped.x / TILE_SIZE,
+            clipped.y / TILE_SIZE,
+            (clipped.x + clipped.width - 1) / TILE_SIZE,
+            (clipped.y + clipped.height - 1) / TILE_SIZE
+        };
+    }
+
+    /**
+     * Get the number of tiles needed to cover a surface
+     */
+    public static int tileCount(int width, int height) {
+        return ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Check if this snapshot can be diffed against the given surface
+     */
+    public boolean isCompatible(TiledSurface surface) {
+        return surface.getWidth() == width && surface.getHeight() == height;
+    }
+
+    /**
+     * Check if a tile covers an area that was never painted
+     */
+    public boolean isBlank(int index) {
+        return isBlankTile(tiles[index]);
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+    public RasterTile getTile(int index) { return tiles[index]; }
+
+    /**
+     * Check if the tiles come from a transparent surface and hold premultiplied ARGB rather than RGB
+     */
+    public boolean isTransparent() { return transparent; }
+
+    private static boolean isUniform(RasterTile tile) {
+        int[] pixels = tile.getPixels();
+        int first = pixels[0];
+        for (int i = 1; i < pixels.length; i++) {
+            if (pixels[i] != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlankTile(RasterTile tile) {
+        return tile == blankTiles.get(blankKey(tile.getWidth(), tile.getHeight(), false))
+            || tile == blankTiles.get(blankKey(tile.getWidth(), tile.getHeight(), true));
+    }
+
+    private static long blankKey(int width, int height, boolean transparent) {
+        return ((long) width << 32) | ((long) height << 1) | (transparent ? 1 : 0);
+    }
+
+    private RasterTile copyTile(TiledSurface surface, int index) {
+        Rectangle r = tileBounds(index);
+        if (surface.isBlank(r)) {
+            return blankTiles.computeIfAbsent(blankKey(r.width, r.height, surface.isTransparent()),
+                key -> new RasterTile(r.width, r.height, surface.getPixels(r)));
+        }
+        return new RasterTile(r.width, r.height, surface.getPixels(r));
+    }
+
+    /**
+     * Get the surface area covered by a tile
+     */
+    public Rectangle tileBounds(int index) {
+        int x = (index % columns) * TILE_SIZE;
+        int y = (index / columns) * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+    }
+}
@@ -0,0 +1,26 @@
+package com.drawingstudio.manager;
+
+import java.io.File;
+
+/**
+ * Receives progress and completion of a background save
+ * All methods are called on the AWT event dispatch thread
+ */
+public interface SaveListener {
+    
+    /**
+     * Called as the image is encoded
+     * @param percent Progress from 0 to 100
+     */
+    void saveProgress(File file, float percent);
+    
+    /**
+     * Called once the file has been written and moved into place
+     */
+    void saveCompleted(File file, long elapsedMillis);
+    
+    /**
+     * Called if compositing, encoding or writing failed
+     */
+    void saveFailed(File file, Exception error);
+}
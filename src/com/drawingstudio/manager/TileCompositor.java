@@ -0,0 +1,267 @@
+package com.drawingstudio.manager;
+
+import com.drawingstudio.shapes.ShapeBase;
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Composites a tile snapshot and shapes into an image, in parallel
+ *
+ * The requested area is split in half, and in half again, until the
+ * pieces are small enough to render on their own; the pieces are then
+ * drawn on a fork/join pool. Each split also narrows the list of shapes
+ * to those whose bounds reach into that half, so a piece only draws the
+ * shapes that can touch it. A transparent raster, from a layer above the
+ * bottom one, gives premultiplied ARGB pixels. The pool size is set with
+ * the drawingstudio.render.threads system property and defaults to the
+ * number of cores.
+ */
+public class TileCompositor {
+    // Pieces at or below this many pixels are rendered without splitting further
+    private static final int PIECE_AREA = 256 * 128;
+    // Split points stay on the raster tile grid so whole tiles can be copied
+    private static final int ALIGN = RasterTiles.TILE_SIZE;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1,
+        Integer.getInteger("drawingstudio.render.threads", Runtime.getRuntime().availableProcessors())));
+
+    // Per-thread images the pieces are drawn into before being copied out
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private final RasterTiles raster;
+    private final List<ShapeBase> shapes;
+    private final Rectangle[] shapeBounds;
+    private final double scale;
+
+    /**
+     * @param raster Tile snapshot of the drawing surface
+     * @param shapes Shapes to draw on top, bottom to top; must not change while compositing
+     * @param scale Size of the output relative to the drawing
+     */
+    public TileCompositor(RasterTiles raster, List<ShapeBase> shapes, double scale) {
+        this.raster = raster;
+        this.shapes = shapes;
+        this.scale = scale;
+
+        // Bounds are looked up once per split, so work them out just once
+        this.shapeBounds = new Rectangle[shapes.size()];
+        for (int i = 0; i < shapeBounds.length; i++) {
+            shapeBounds[i] = shapes.get(i).getBounds();
+        }
+    }
+
+    /**
+     * Composite part of the output into an image
+     * @param target TYPE_INT_RGB image, or TYPE_INT_ARGB_PRE for a transparent raster,
+     *               whose top-left pixel is area's top-left corner
+     * @param area Part of the output to render, in output pixels
+     */
+    public void composite(BufferedImage target, Rectangle area) {
+        if (area.isEmpty()) {
+            return;
+        }
+        int[] all = new int[shapeBounds.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        Piece root = new Piece(target, area.getLocation(), area, cull(all, sourceArea(area)));
+        pool.invoke(root);
+    }
+
+    /**
+     * One rectangle of the output, split further or rendered directly
+     */
+    private class Piece extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage target;
+        private final Point origin;
+        private final Rectangle area;
+        private final int[] candidates;
+
+        Piece(BufferedImage target, Point origin, Rectangle area, int[] candidates) {
+            this.target = target;
+            this.origin = origin;
+            this.area = area;
+            this.candidates = candidates;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) area.width * area.height > PIECE_AREA) {
+                Rectangle[] halves = split(area);
+                if (halves != null) {
+                    invokeAll(
+                        new Piece(target, origin, halves[0], cull(candidates, sourceArea(halves[0]))),
+                        new Piece(target, origin, halves[1], cull(candidates, sourceArea(halves[1]))));
+                    return;
+                }
+            }
+            render(target, origin, area, candidates);
+        }
+    }
+
+    /**
+     * Split a rectangle across its longer side on the tile grid
+     * @return The two halves, or null if the rectangle is too small to split
+     */
+    private static Rectangle[] split(Rectangle r) {
+        boolean across = r.width >= r.height;
+        for (int attempt = 0; attempt < 2; attempt++, across = !across) {
+            int start = across ? r.x : r.y;
+            int length = across ? r.width : r.height;
+            int mid = (start + length / 2) / ALIGN * ALIGN;
+            if (mid <= start) {
+                mid += ALIGN;
+            }
+            if (mid < start + length) {
+                if (across) {
+                    return new Rectangle[] {
+                        new Rectangle(r.x, r.y, mid - r.x, r.height),
+                        new Rectangle(mid, r.y, r.x + r.width - mid, r.height)
+                    };
+                }
+                return new Rectangle[] {
+                    new Rectangle(r.x, r.y, r.width, mid - r.y),
+                    new Rectangle(r.x, mid, r.width, r.y + r.height - mid)
+                };
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the part of the drawing that lands in an area of the output
+     */
+    private Rectangle sourceArea(Rectangle area) {
+        if (scale == 1.0) {
+            return area;
+        }
+        // One extra pixel each side for the bilinear filter
+        int left = (int) Math.floor(area.x / scale) - 1;
+        int top = (int) Math.floor(area.y / scale) - 1;
+        int right = (int) Math.ceil((area.x + area.width) / scale) + 1;
+        int bottom = (int) Math.ceil((area.y + area.height) / scale) + 1;
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Keep the shapes whose bounds reach into an area, in drawing order
+     */
+    private int[] cull(int[] candidates, Rectangle source) {
+        int[] kept = new int[candidates.length];
+        int count = 0;
+        for (int index : candidates) {
+            if (shapeBounds[index].intersects(source)) {
+                kept[count++] = index;
+            }
+        }
+        return count == kept.length ? kept : Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Render one piece into this thread's scratch image and copy it to the target
+     */
+    private void render(BufferedImage target, Point origin, Rectangle area, int[] candidates) {
+        boolean transparent = raster.isTransparent();
+        Scratch buffers = scratch.get();
+        BufferedImage image = buffers.image(area.width, area.height, transparent);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.clipRect(0, 0, area.width, area.height);
+        g.translate(-area.x, -area.y);
+
+        Rectangle source = sourceArea(area);
+        if (transparent) {
+            // Tiles that are drawn rather than copied blend with what is already there
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(area.x, area.y, area.width, area.height);
+            g.setComposite(AlphaComposite.SrcOver);
+        }
+        if (scale != 1.0) {
+            if (!transparent) {
+                // Edge pixels may only be partly covered by the scaled tiles
+                g.setColor(Color.WHITE);
+                g.fillRect(area.x, area.y, area.width, area.height);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.scale(scale, scale);
+        }
+
+        // Raster tiles overlapping the piece
+        int[] range = RasterTiles.tileRange(source, raster.getWidth(), raster.getHeight());
+        if (range != null) {
+            for (int row = range[1]; row <= range[3]; row++) {
+                for (int col = range[0]; col <= range[2]; col++) {
+                    int tile = row * raster.getColumns() + col;
+                    Rectangle r = raster.tileBounds(tile);
+                    int[] pixels = raster.getTile(tile).getPixels();
+                    if (scale == 1.0 && area.contains(r)) {
+                        // Splits follow the tile grid, so tiles usually lie wholly inside a piece
+                        image.getRaster().setDataElements(r.x - area.x, r.y - area.y, r.width, r.height, pixels);
+                    } else {
+                        BufferedImage tileImage = buffers.tile(transparent);
+                        tileImage.getRaster().setDataElements(0, 0, r.width, r.height, pixels);
+                        g.drawImage(tileImage, r.x, r.y, r.x + r.width, r.y + r.height, 0, 0, r.width, r.height, null);
+                    }
+                }
+            }
+        }
+
+        for (int index : candidates) {
+            shapes.get(index).draw(g);
+        }
+        g.dispose();
+
+        // Pieces never overlap, so each thread writes its own rows of the target
+        int[] from = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] to = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        int fromStride = image.getWidth();
+        int toStride = target.getWidth();
+        int offset = (area.y - origin.y) * toStride + (area.x - origin.x);
+        for (int y = 0; y < area.height; y++) {
+            System.arraycopy(from, y * fromStride, to, offset + y * toStride, area.width);
+        }
+    }
+
+    /**
+     * Reusable images for one worker thread, opaque and transparent
+     */
+    private static class Scratch {
+        private final BufferedImage[] images = new BufferedImage[2];
+        private final BufferedImage[] tiles = new BufferedImage[2];
+
+        BufferedImage image(int width, int height, boolean transparent) {
+            int kind = transparent ? 1 : 0;
+            BufferedImage image = images[kind];
+            if (image == null || image.getWidth() < width || image.getHeight() < height) {
+                int w = Math.max(width, image == null ? 0 : image.getWidth());
+                int h = Math.max(height, image == null ? 0 : image.getHeight());
+                images[kind] = new BufferedImage(w, h, imageType(transparent));
+            }
+            return images[kind];
+        }
+
+        BufferedImage tile(boolean transparent) {
+            int kind = transparent ? 1 : 0;
+            if (tiles[kind] == null) {
+                tiles[kind] = new BufferedImage(RasterTiles.TILE_SIZE, RasterTiles.TILE_SIZE, imageType(transparent));
+            }
+            return tiles[kind];
+        }
+
+        private static int imageType(boolean transparent) {
+            return transparent ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB;
+        }
+    }
+}
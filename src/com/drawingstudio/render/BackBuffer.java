@@ -0,0 +1,99 @@
+package com.drawingstudio.render;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.VolatileImage;
+
+/**
+ * Offscreen buffer a component is drawn into before it is copied to the screen
+ *
+ * On screen the buffer is a VolatileImage, which the pipeline can keep in
+ * video memory so the copy to the screen is a plain blit. Its contents can
+ * be lost at any time, e.g. when the display mode changes, so callers draw
+ * the whole area they show and repeat if they were lost meanwhile:
+ *
+ *   do {
+ *       Graphics2D g = buffer.createGraphics(width, height);
+ *       ...draw...
+ *       g.dispose();
+ *       screen.drawImage(buffer.getImage(), ...);
+ *   } while (buffer.contentsLost());
+ *
+ * Headless, or where no volatile image can be created, a compatible
+ * BufferedImage is used instead and contents are never lost.
+ */
+public class BackBuffer {
+    private final Component owner;
+    private Image image;
+    private GraphicsConfiguration config;
+
+    // Times the contents were lost and the image restored
+    private long restores = 0;
+
+    public BackBuffer(Component owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Get graphics for drawing into the buffer
+     * The buffer is first grown to at least the given size if needed and, when
+     * volatile, validated against the screen the component is now on
+     */
+    public Graphics2D createGraphics(int width, int height) {
+        GraphicsConfiguration current = SurfaceFactory.getConfiguration(owner);
+        if (image == null || current != config || image.getWidth(null) < width || image.getHeight(null) < height) {
+            allocate(current, Math.max(width, image == null ? 0 : image.getWidth(null)),
+                Math.max(height, image == null ? 0 : image.getHeight(null)));
+        } else if (image instanceof VolatileImage) {
+            int status = ((VolatileImage) image).validate(config);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                allocate(current, image.getWidth(null), image.getHeight(null));
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                restores++;
+            }
+        }
+        return (Graphics2D) image.getGraphics();
+    }
+
+    /**
+     * Check if the contents were lost since createGraphics; if so, draw again
+     */
+    public boolean contentsLost() {
+        return image instanceof VolatileImage && ((VolatileImage) image).contentsLost();
+    }
+
+    /**
+     * Get the buffer image, to draw it to the screen
+     */
+    public Image getImage() {
+        return image;
+    }
+
+    /**
+     * Check if the buffer is a volatile image held by the graphics pipeline
+     */
+    public boolean isVolatile() {
+        return image instanceof VolatileImage;
+    }
+
+    public long getRestoreCount() {
+        return restores;
+    }
+
+    private void allocate(GraphicsConfiguration current, int width, int height) {
+        if (image != null) {
+            image.flush();
+        }
+        config = current;
+        image = null;
+        if (config != null) {
+            image = config.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+        }
+        if (image == null) {
+            image = SurfaceFactory.createCompatibleImage(config, width, height, Transparency.OPAQUE);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.drawingstudio.render;
+
+import java.awt.Component;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Creates offscreen images in the format of the screen they are drawn to
+ *
+ * Images in the screen's own format are copied to it without converting
+ * pixels, and as long as they are only drawn into through Graphics the
+ * Java2D pipelines (XRender, OpenGL, Direct3D) can keep a copy in video
+ * memory. Headless, or before a component is on screen, there is no
+ * screen format and plain BufferedImages of the matching kind are used.
+ * SurfaceBenchmark compares the kinds; it has only been run headless.
+ */
+public final class SurfaceFactory {
+
+    private SurfaceFactory() {
+    }
+
+    /**
+     * Get the graphics configuration of the screen a component is shown on
+     * @return The configuration, or null when headless or not yet on screen
+     */
+    public static GraphicsConfiguration getConfiguration(Component component) {
+        return component == null ? null : component.getGraphicsConfiguration();
+    }
+
+    /**
+     * Create an image for caching something drawn often, e.g. a layer
+     * @param config Screen configuration, or null for a plain BufferedImage
+     * @param transparency Transparency.OPAQUE, BITMASK or TRANSLUCENT
+     */
+    public static BufferedImage createCompatibleImage(GraphicsConfiguration config, int width, int height, int transparency) {
+        if (config != null) {
+            return config.createCompatibleImage(width, height, transparency);
+        }
+        return new BufferedImage(width, height,
+            transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+}
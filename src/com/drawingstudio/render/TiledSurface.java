@@ -0,0 +1,267 @@
+package com.drawingstudio.render;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Sparse raster drawing surface made of fixed-size tiles
+ *
+ * Tiles are allocated the first time something is drawn into them; until
+ * then they read as a shared white tile. Memory therefore grows with the
+ * painted area rather than the canvas size, which makes very large
+ * canvases practical.
+ *
+ * A transparent surface, used for layers stacked over others, starts fully
+ * transparent instead of white and skips its unpainted tiles when drawn.
+ */
+public class TiledSurface {
+    public static final int TILE_SIZE = 256;
+
+    private static final BufferedImage BLANK_TILE = createTile(false);
+    private static final int BLANK_PIXEL = BLANK_TILE.getRaster().getDataBuffer().getElem(0);
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final BufferedImage[] tiles;
+    private final boolean transparent;
+    private int allocatedTiles = 0;
+
+    public TiledSurface(int width, int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * @param transparent True for a surface that starts transparent rather than white
+     */
+    public TiledSurface(int width, int height, boolean transparent) {
+        this.width = width;
+        this.height = height;
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new BufferedImage[columns * rows];
+        this.transparent = transparent;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+    public boolean isTransparent() { return transparent; }
+
+    public Rectangle getBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    /**
+     * Draw into the surface
+     * The painter is called once per tile touched by bounds, with a graphics
+     * context translated to surface coordinates and clipped to that tile
+     * @param bounds Area the painter may draw into
+     * @param painter Drawing code; must give the same result every time it is called
+     */
+    public void draw(Rectangle bounds, Consumer<Graphics2D> painter) {
+        Rectangle area = bounds.intersection(getBounds());
+        if (area.isEmpty()) {
+            return;
+        }
+
+        for (int row = area.y / TILE_SIZE; row <= (area.y + area.height - 1) / TILE_SIZE; row++) {
+            for (int col = area.x / TILE_SIZE; col <= (area.x + area.width - 1) / TILE_SIZE; col++) {
+                BufferedImage tile = allocateTile(row * columns + col);
+                Graphics2D g = tile.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+                g.clip(area);
+                painter.accept(g);
+                g.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reset the whole surface to white, or transparent, releasing every tile
+     */
+    public void clear() {
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = null;
+        }
+        allocatedTiles = 0;
+    }
+
+    /**
+     * Take over the tiles of another surface of the same size and kind,
+     * e.g. one a file was decoded into; the other surface must not be used afterwards
+     */
+    public void replaceWith(TiledSurface other) {
+        if (other.width != width || other.height != height || other.transparent != transparent) {
+            throw new IllegalArgumentException("Surfaces differ in size or kind");
+        }
+        System.arraycopy(other.tiles, 0, tiles, 0, tiles.length);
+        allocatedTiles = other.allocatedTiles;
+    }
+
+    /**
+     * Blit part of the surface, in surface coordinates, onto a graphics context
+     */
+    public void drawTo(Graphics2D g, Rectangle region) {
+        Rectangle area = region.intersection(getBounds());
+        if (area.isEmpty()) {
+            return;
+        }
+
+        for (int row = area.y / TILE_SIZE; row <= (area.y + area.height - 1) / TILE_SIZE; row++) {
+            for (int col = area.x / TILE_SIZE; col <= (area.x + area.width - 1) / TILE_SIZE; col++) {
+                BufferedImage tile = tiles[row * columns + col];
+                int tileX = col * TILE_SIZE;
+                int tileY = row * TILE_SIZE;
+                Rectangle part = area.intersection(new Rectangle(tileX, tileY, TILE_SIZE, TILE_SIZE));
+                if (tile == null) {
+                    if (transparent) {
+                        continue;
+                    }
+                    tile = BLANK_TILE;
+                }
+                g.drawImage(tile,
+                    part.x, part.y, part.x + part.width, part.y + part.height,
+                    part.x - tileX, part.y - tileY, part.x - tileX + part.width, part.y - tileY + part.height,
+                    null);
+            }
+        }
+    }
+
+    /**
+     * Get the color of a single pixel
+     */
+    public int getRGB(int x, int y) {
+        BufferedImage tile = tiles[(y / TILE_SIZE) * columns + x / TILE_SIZE];
+        if (tile == null) {
+            return transparent ? 0 : Color.WHITE.getRGB();
+        }
+        return tile.getRGB(x % TILE_SIZE, y % TILE_SIZE);
+    }
+
+    /**
+     * Check if nothing has been drawn anywhere in a region
+     * Regions must not extend past a single tile
+     */
+    public boolean isBlank(Rectangle region) {
+        return tiles[tileIndexOf(region)] == null;
+    }
+
+    /**
+     * Read packed pixels from a region that lies within a single tile
+     * Pixels are RGB, or premultiplied ARGB on a transparent surface
+     */
+    public int[] getPixels(Rectangle region) {
+        int[] pixels = new int[region.width * region.height];
+        BufferedImage tile = tiles[tileIndexOf(region)];
+        if (tile == null) {
+            Arrays.fill(pixels, transparent ? 0 : BLANK_PIXEL);
+        } else {
+            tile.getRaster().getDataElements(region.x % TILE_SIZE, region.y % TILE_SIZE,
+                region.width, region.height, pixels);
+        }
+        return pixels;
+    }
+
+    /**
+     * Write packed pixels, in the format getPixels reads, into a region that lies within a single tile
+     */
+    public void setPixels(Rectangle region, int[] pixels) {
+        BufferedImage tile = allocateTile(tileIndexOf(region));
+        tile.getRaster().setDataElements(region.x % TILE_SIZE, region.y % TILE_SIZE,
+            region.width, region.height, pixels);
+    }
+
+    /**
+     * Reset a region that lies within a single tile to white, or transparent
+     * Unallocated tiles are already blank and stay unallocated
+     */
+    public void clearPixels(Rectangle region) {
+        BufferedImage tile = tiles[tileIndexOf(region)];
+        if (tile != null) {
+            Graphics2D g = tile.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.setColor(transparent ? new Color(0, true) : Color.WHITE);
+            g.fillRect(region.x % TILE_SIZE, region.y % TILE_SIZE, region.width, region.height);
+            g.dispose();
+        }
+    }
+
+    /**
+     * Fill horizontal runs of pixels with one opaque color
+     * Each run is copied into the tiles it crosses a row at a time, so the
+     * cost grows with the number of runs rather than the number of pixels
+     * @param spans Runs as (y, startX, endX) triples, endX exclusive, all within the surface
+     * @param count Number of triples to use
+     * @param rgb Color to fill with
+     */
+    public void fillSpans(int[] spans, int count, int rgb) {
+        // Stored the way Java2D stores it on both kinds of tile; an opaque color is already premultiplied
+        int pixel = 0xFF000000 | rgb;
+        int[] row = new int[TILE_SIZE];
+        Arrays.fill(row, pixel);
+
+        for (int i = 0; i < count * 3; i += 3) {
+            int y = spans[i];
+            int x = spans[i + 1];
+            int end = spans[i + 2];
+            while (x < end) {
+                int tileX = x % TILE_SIZE;
+                int length = Math.min(end - x, TILE_SIZE - tileX);
+                BufferedImage tile = allocateTile((y / TILE_SIZE) * columns + x / TILE_SIZE);
+                tile.getRaster().setDataElements(tileX, y % TILE_SIZE, length, 1, row);
+                x += length;
+            }
+        }
+    }
+
+    /**
+     * Get the number of tiles that hold pixel data
+     */
+    public int getAllocatedTileCount() {
+        return allocatedTiles;
+    }
+
+    /**
+     * Get the memory used by allocated tiles
+     */
+    public long getAllocatedBytes() {
+        return (long) allocatedTiles * TILE_SIZE * TILE_SIZE * 4;
+    }
+
+    private int tileIndexOf(Rectangle region) {
+        return (region.y / TILE_SIZE) * columns + region.x / TILE_SIZE;
+    }
+
+    private BufferedImage allocateTile(int index) {
+        BufferedImage tile = tiles[index];
+        if (tile == null) {
+            tile = createTile(transparent);
+            tiles[index] = tile;
+            allocatedTiles++;
+        }
+        return tile;
+    }
+
+    private static BufferedImage createTile(boolean transparent) {
+        if (transparent) {
+            // New images start fully transparent
+            return new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        g.dispose();
+        return tile;
+    }
+}
@@ -1,6 +1,7 @@
 package com.drawingstudio.shapes;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 
 /**
  * Represents a diamond/rhombus shape
@@ -12,10 +13,7 @@ public class DiamondShape extends ShapeBase {
     }
     
     @Override
-    public void draw(Graphics2D g2d) {
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        
+    protected Path2D createPath() {
         int centerX = (startPoint.x + endPoint.x) / 2;
         int centerY = (startPoint.y + endPoint.y) / 2;
         int halfWidth = Math.abs(endPoint.x - startPoint.x) / 2;
@@ -24,7 +22,7 @@ public class DiamondShape extends ShapeBase {
         int[] diamondX = {centerX, centerX + halfWidth, centerX, centerX - halfWidth};
         int[] diamondY = {centerY - halfHeight, centerY, centerY + halfHeight, centerY};
         
-        g2d.drawPolygon(diamondX, diamondY, 4);
+        return new Path2D.Float(new Polygon(diamondX, diamondY, 4));
     }
     
     @Override
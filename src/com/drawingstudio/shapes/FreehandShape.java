@@ -0,0 +1,270 @@
+package com.drawingstudio.shapes;
+
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * Represents a freehand brush or eraser stroke
+ *
+ * The samples are stored as zigzag varint deltas from the previous sample,
+ * so a typical point takes two or three bytes instead of a Point object.
+ * They are decoded into a path the first time the stroke is drawn, and the
+ * path is kept like that of any other shape.
+ * The points can be joined by straight lines or by a smooth curve through them.
+ */
+public class FreehandShape extends ShapeBase {
+
+    /**
+     * How consecutive points are joined when the stroke is drawn
+     */
+    public enum Smoothing {
+        NONE,           // Straight lines
+        CATMULL_ROM,    // Curve passing through every point
+        QUADRATIC       // Curve through the midpoints, using the points as control points
+    }
+
+    private final byte[] encoded;
+    private final int pointCount;
+    private final Smoothing smoothing;
+    private final Rectangle bounds;
+
+    /**
+     * @param xPoints X coordinates of the samples, in drawing order
+     * @param yPoints Y coordinates of the samples
+     * @param count Number of samples to use from the arrays
+     */
+    public FreehandShape(int[] xPoints, int[] yPoints, int count, Color color, int strokeWidth) {
+        this(xPoints, yPoints, count, color, strokeWidth, Smoothing.NONE);
+    }
+
+    /**
+     * @param smoothing How the points are joined when drawn
+     */
+    public FreehandShape(int[] xPoints, int[] yPoints, int count, Color color, int strokeWidth, Smoothing smoothing) {
+        super(new Point(xPoints[0], yPoints[0]), new Point(xPoints[count - 1], yPoints[count - 1]), color, strokeWidth);
+        this.pointCount = count;
+        this.smoothing = smoothing;
+        this.encoded = encode(xPoints, yPoints, count);
+        this.bounds = computeBounds(xPoints, yPoints, count, strokeWidth);
+        if (smoothing != Smoothing.NONE) {
+            // Curves stay inside their control points, which may reach past the samples
+            this.bounds.add(pad(buildPath(xPoints, yPoints).getBounds(), strokeWidth));
+        }
+    }
+
+    /**
+     * Recreate a stroke from its encoded samples, e.g. when reading a saved document
+     */
+    public FreehandShape(byte[] encoded, int pointCount, Color color, int strokeWidth, Smoothing smoothing) {
+        this(decodePoints(encoded, pointCount), pointCount, color, strokeWidth, smoothing);
+    }
+
+    private FreehandShape(int[][] points, int count, Color color, int strokeWidth, Smoothing smoothing) {
+        this(points[0], points[1], count, color, strokeWidth, smoothing);
+    }
+
+    @Override
+    public void draw(Graphics2D g2d) {
+        g2d.setColor(color);
+        g2d.setStroke(StrokeCache.get(strokeWidth));
+        if (pointCount == 1) {
+            g2d.drawLine(startPoint.x, startPoint.y, startPoint.x, startPoint.y);
+            return;
+        }
+
+        // One path for the whole stroke is far cheaper than a line per segment
+        g2d.draw(getPath());
+    }
+
+    /**
+     * Decode the samples into a path
+     */
+    @Override
+    protected Path2D createPath() {
+        int[] xs = new int[pointCount];
+        int[] ys = new int[pointCount];
+        decode(encoded, pointCount, xs, ys);
+        return buildPath(xs, ys);
+    }
+
+    /**
+     * Join the points into a path according to the smoothing mode
+     */
+    private Path2D buildPath(int[] xs, int[] ys) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, pointCount);
+        path.moveTo(xs[0], ys[0]);
+        int last = pointCount - 1;
+
+        switch (smoothing) {
+            case CATMULL_ROM:
+                // Each span p1-p2 as a cubic Bezier, using its neighbours for the tangents
+                for (int i = 0; i < last; i++) {
+                    int i0 = Math.max(i - 1, 0);
+                    int i3 = Math.min(i + 2, last);
+                    path.curveTo(
+                        xs[i] + (xs[i + 1] - xs[i0]) / 6f, ys[i] + (ys[i + 1] - ys[i0]) / 6f,
+                        xs[i + 1] - (xs[i3] - xs[i]) / 6f, ys[i + 1] - (ys[i3] - ys[i]) / 6f,
+                        xs[i + 1], ys[i + 1]);
+                }
+                break;
+            case QUADRATIC:
+                for (int i = 1; i < last; i++) {
+                    path.quadTo(xs[i], ys[i], (xs[i] + xs[i + 1]) / 2f, (ys[i] + ys[i + 1]) / 2f);
+                }
+                path.lineTo(xs[last], ys[last]);
+                break;
+            default:
+                for (int i = 1; i <= last; i++) {
+                    path.lineTo(xs[i], ys[i]);
+                }
+                break;
+        }
+        return path;
+    }
+
+    /**
+     * Check if a point lies on the stroke, within half its width plus some slack
+     */
+    @Override
+    public boolean contains(Point p) {
+        if (!bounds.contains(p)) {
+            return false;
+        }
+        double reach = strokeWidth / 2.0 + HIT_SLACK;
+        double reachSq = reach * reach;
+
+        int[] xs = new int[pointCount];
+        int[] ys = new int[pointCount];
+        decode(encoded, pointCount, xs, ys);
+        if (pointCount == 1) {
+            return p.distanceSq(xs[0], ys[0]) <= reachSq;
+        }
+        for (int i = 1; i < pointCount; i++) {
+            if (Line2D.ptSegDistSq(xs[i - 1], ys[i - 1], xs[i], ys[i], p.x, p.y) <= reachSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * Get the approximate memory held by this stroke, including its cached path
+     */
+    @Override
+    public long getByteSize() {
+        // A float coordinate pair and a segment type for each point, or three pairs per curve segment
+        int bytesPerPoint = smoothing == Smoothing.CATMULL_ROM ? 25 : smoothing == Smoothing.QUADRATIC ? 17 : 9;
+        return 64 + encoded.length + (long) pointCount * bytesPerPoint;
+    }
+
+    @Override
+    public String getType() {
+        return "FREEHAND";
+    }
+
+    // Getters
+    public int getPointCount() { return pointCount; }
+    public Smoothing getSmoothing() { return smoothing; }
+
+    /**
+     * Get the samples as stored: zigzag varint deltas, x then y for each point
+     * The returned array is shared and must not be modified
+     */
+    public byte[] getEncodedPoints() {
+        return encoded;
+    }
+
+    /**
+     * Decode the samples into arrays of at least getPointCount() elements
+     */
+    public void getPoints(int[] xPoints, int[] yPoints) {
+        decode(encoded, pointCount, xPoints, yPoints);
+    }
+
+    // Encoding
+
+    private static byte[] encode(int[] xs, int[] ys, int count) {
+        // Worst case is five bytes per value
+        byte[] buffer = new byte[count * 10];
+        int length = 0;
+        int lastX = 0, lastY = 0;
+        for (int i = 0; i < count; i++) {
+            length = writeVarint(buffer, length, zigzag(xs[i] - lastX));
+            length = writeVarint(buffer, length, zigzag(ys[i] - lastY));
+            lastX = xs[i];
+            lastY = ys[i];
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private static void decode(byte[] data, int count, int[] xs, int[] ys) {
+        int position = 0;
+        int x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            x += (value >>> 1) ^ -(value & 1);
+
+            value = 0;
+            shift = 0;
+            do {
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            y += (value >>> 1) ^ -(value & 1);
+
+            xs[i] = x;
+            ys[i] = y;
+        }
+    }
+
+    private static int[][] decodePoints(byte[] data, int count) {
+        int[][] points = new int[2][count];
+        decode(data, count, points[0], points[1]);
+        return points;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int writeVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static Rectangle computeBounds(int[] xs, int[] ys, int count, int strokeWidth) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return pad(new Rectangle(minX, minY, maxX - minX, maxY - minY), strokeWidth);
+    }
+
+    private static Rectangle pad(Rectangle r, int strokeWidth) {
+        int pad = hitPadding(strokeWidth);
+        return new Rectangle(r.x - pad, r.y - pad, r.width + pad * 2, r.height + pad * 2);
+    }
+}
@@ -1,6 +1,7 @@
 package com.drawingstudio.shapes;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 
 /**
  * Represents a line shape
@@ -12,10 +13,11 @@ public class LineShape extends ShapeBase {
     }
     
     @Override
-    public void draw(Graphics2D g2d) {
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        g2d.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
+    protected Path2D createPath() {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, 2);
+        path.moveTo(startPoint.x, startPoint.y);
+        path.lineTo(endPoint.x, endPoint.y);
+        return path;
     }
     
     @Override
@@ -1,6 +1,8 @@
 package com.drawingstudio.shapes;
 
 import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
 
 /**
  * Represents an oval/ellipse shape
@@ -12,16 +14,13 @@ public class OvalShape extends ShapeBase {
     }
     
     @Override
-    public void draw(Graphics2D g2d) {
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        
+    protected Path2D createPath() {
         int x = Math.min(startPoint.x, endPoint.x);
         int y = Math.min(startPoint.y, endPoint.y);
         int width = Math.abs(endPoint.x - startPoint.x);
         int height = Math.abs(endPoint.y - startPoint.y);
         
-        g2d.drawOval(x, y, width, height);
+        return new Path2D.Float(new Ellipse2D.Float(x, y, width, height));
     }
     
     @Override
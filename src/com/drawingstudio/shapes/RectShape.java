@@ -1,6 +1,7 @@
 package com.drawingstudio.shapes;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 
 /**
  * Represents a rectangle shape
@@ -12,16 +13,13 @@ public class RectShape extends ShapeBase {
     }
     
     @Override
-    public void draw(Graphics2D g2d) {
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        
+    protected Path2D createPath() {
         int x = Math.min(startPoint.x, endPoint.x);
         int y = Math.min(startPoint.y, endPoint.y);
         int width = Math.abs(endPoint.x - startPoint.x);
         int height = Math.abs(endPoint.y - startPoint.y);
         
-        g2d.drawRect(x, y, width, height);
+        return new Path2D.Float(new Rectangle(x, y, width, height));
     }
     
     @Override
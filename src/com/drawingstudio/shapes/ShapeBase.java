@@ -1,17 +1,30 @@
 package com.drawingstudio.shapes;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 
 /**
  * Abstract base class for all drawable shapes
  * Defines common properties and methods for shapes
+ *
+ * Shapes never change after creation, so the outline path, its bounds and
+ * the widened outline used for hit-testing are each built once, the first
+ * time they are needed, and reused from then on.
  */
 public abstract class ShapeBase {
+    // Extra distance in pixels around the stroke that still counts as a hit
+    static final int HIT_SLACK = 3;
+    
     protected Point startPoint;
     protected Point endPoint;
     protected Color color;
     protected int strokeWidth;
     
+    // Cached geometry; shapes may be drawn from several threads at once
+    private volatile Path2D path;
+    private volatile Rectangle bounds;
+    private volatile Shape hitArea;
+    
     public ShapeBase(Point start, Point end, Color color, int strokeWidth) {
         this.startPoint = new Point(start);
         this.endPoint = new Point(end);
@@ -19,25 +32,78 @@ public abstract class ShapeBase {
         this.strokeWidth = strokeWidth;
     }
     
+    /**
+     * Build the outline of the shape, as it is stroked when drawn
+     * Called once; the result is cached and must not be modified afterwards
+     */
+    protected abstract Path2D createPath();
+    
+    /**
+     * Get the cached outline of the shape
+     * The returned path is shared and must not be modified
+     */
+    protected Path2D getPath() {
+        Path2D current = path;
+        if (current == null) {
+            current = createPath();
+            path = current;
+        }
+        return current;
+    }
+    
     /**
      * Draw the shape on the given graphics context
      */
-    public abstract void draw(Graphics2D g2d);
+    public void draw(Graphics2D g2d) {
+        g2d.setColor(color);
+        g2d.setStroke(StrokeCache.get(strokeWidth));
+        g2d.draw(getPath());
+    }
     
     /**
-     * Check if a point is within this shape's bounds
+     * Check if a point lies on the stroke, within half its width plus some slack
      * Used for selection and eraser functionality
      */
     public boolean contains(Point p) {
-        int x = Math.min(startPoint.x, endPoint.x);
-        int y = Math.min(startPoint.y, endPoint.y);
-        int width = Math.abs(endPoint.x - startPoint.x);
-        int height = Math.abs(endPoint.y - startPoint.y);
-        
-        // Add padding for easier selection
-        int padding = strokeWidth + 5;
-        return p.x >= x - padding && p.x <= x + width + padding &&
-               p.y >= y - padding && p.y <= y + height + padding;
+        Shape current = hitArea;
+        if (current == null) {
+            current = StrokeCache.get(strokeWidth + HIT_SLACK * 2).createStrokedShape(getPath());
+            hitArea = current;
+        }
+        return current.contains(p);
+    }
+    
+    /**
+     * Get the area covered by this shape, inflated by its stroke and hit slack
+     * Used to limit repaints and skip shapes outside a region; the shape index
+     * only hit-tests shapes whose bounds hold the point, so these must enclose
+     * everything contains() accepts
+     */
+    public Rectangle getBounds() {
+        Rectangle current = bounds;
+        if (current == null) {
+            Rectangle r = getPath().getBounds();
+            int pad = hitPadding(strokeWidth);
+            current = new Rectangle(r.x - pad, r.y - pad, r.width + pad * 2, r.height + pad * 2);
+            bounds = current;
+        }
+        return new Rectangle(current);
+    }
+    
+    /**
+     * Get how far bounds must reach past the outline to hold its hit area
+     * One more than the reach, since points on the far edges count as hits
+     * but Rectangle.contains excludes them
+     */
+    static int hitPadding(int strokeWidth) {
+        return strokeWidth / 2 + HIT_SLACK + 1;
+    }
+    
+    /**
+     * Get the approximate memory held by this shape, including its cached outline
+     */
+    public long getByteSize() {
+        return 192;
     }
     
     // Getters
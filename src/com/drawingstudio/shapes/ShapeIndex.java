@@ -0,0 +1,278 @@
+package com.drawingstudio.shapes;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Quadtree spatial index over the shapes of a drawing
+ * Answers topmost-hit and region queries without scanning every shape,
+ * and remembers each shape's stacking order so its position in the
+ * shape list can be found by binary search
+ */
+public class ShapeIndex {
+    private static final int NODE_CAPACITY = 8;
+    private static final int MAX_DEPTH = 12;
+
+    /**
+     * A shape stored in the tree, with its cached bounds and stacking order
+     */
+    private static class Entry {
+        final ShapeBase shape;
+        final Rectangle bounds;
+        final long order;
+        Node node;
+
+        Entry(ShapeBase shape, long order) {
+            this.shape = shape;
+            this.bounds = shape.getBounds();
+            this.order = order;
+        }
+    }
+
+    /**
+     * A quadtree node; entries live in the deepest node that fully contains them
+     */
+    private static class Node {
+        final Rectangle bounds;
+        final int depth;
+        final List<Entry> entries = new ArrayList<>();
+        Node[] children;
+
+        Node(Rectangle bounds, int depth) {
+            this.bounds = bounds;
+            this.depth = depth;
+        }
+    }
+
+    private final Rectangle worldBounds;
+    private final Map<ShapeBase, Entry> entries;
+    private Node root;
+    private long nextOrder;
+
+    /**
+     * @param worldBounds Area the tree subdivides; shapes outside it are kept at the root
+     */
+    public ShapeIndex(Rectangle worldBounds) {
+        this.worldBounds = new Rectangle(worldBounds);
+        this.entries = new IdentityHashMap<>();
+        clear();
+    }
+
+    /**
+     * Add a shape on top of all shapes already in the index
+     */
+    public void add(ShapeBase shape) {
+        Entry entry = new Entry(shape, nextOrder++);
+        entries.put(shape, entry);
+        insert(root, entry);
+    }
+
+    /**
+     * Remove a shape from the index
+     * @return true if the shape was indexed
+     */
+    public boolean remove(ShapeBase shape) {
+        Entry entry = entries.remove(shape);
+        if (entry == null) {
+            return false;
+        }
+        entry.node.entries.remove(entry);
+        return true;
+    }
+
+    /**
+     * Replace the whole index with the given shapes, in stacking order
+     * Used after undo/redo and load swap the shape list wholesale
+     */
+    public void rebuild(List<ShapeBase> shapes) {
+        clear();
+        for (ShapeBase shape : shapes) {
+            add(shape);
+        }
+    }
+
+    /**
+     * Remove all shapes
+     */
+    public void clear() {
+        entries.clear();
+        root = new Node(new Rectangle(worldBounds), 0);
+        nextOrder = 0;
+    }
+
+    /**
+     * Find the topmost shape under a point
+     * @return The hit shape, or null if the point misses every shape
+     */
+    public ShapeBase findTopmost(Point p) {
+        return findTopmost(p, shape -> true);
+    }
+
+    /**
+     * Find the topmost shape under a point, considering only shapes that pass a filter
+     * @return The hit shape, or null if the point misses every accepted shape
+     */
+    public ShapeBase findTopmost(Point p, Predicate<ShapeBase> filter) {
+        Entry best = null;
+        Node node = root;
+        while (node != null) {
+            for (Entry entry : node.entries) {
+                if ((best == null || entry.order > best.order)
+                        && entry.bounds.contains(p) && filter.test(entry.shape) && entry.shape.contains(p)) {
+                    best = entry;
+                }
+            }
+            node = childContaining(node, p);
+        }
+        return best == null ? null : best.shape;
+    }
+
+    /**
+     * Find all shapes whose bounds intersect a region
+     * @return Matching shapes, bottom to top
+     */
+    public List<ShapeBase> query(Rectangle region) {
+        List<Entry> found = new ArrayList<>();
+        collect(root, region, found);
+        found.sort(Comparator.comparingLong(e -> e.order));
+
+        List<ShapeBase> result = new ArrayList<>(found.size());
+        for (Entry entry : found) {
+            result.add(entry.shape);
+        }
+        return result;
+    }
+
+    /**
+     * Find the position of a shape in a list kept in the same order as the index
+     * @return Index into the list, or -1 if the shape is not indexed
+     */
+    public int positionOf(List<ShapeBase> shapes, ShapeBase shape) {
+        Entry target = entries.get(shape);
+        if (target == null) {
+            return -1;
+        }
+
+        int low = 0;
+        int high = shapes.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ShapeBase candidate = shapes.get(mid);
+            if (candidate == shape) {
+                return mid;
+            }
+            Entry entry = entries.get(candidate);
+            if (entry == null) {
+                break;
+            }
+            if (entry.order < target.order) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // List and index disagree on order; fall back to a scan
+        for (int i = 0; i < shapes.size(); i++) {
+            if (shapes.get(i) == shape) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void insert(Node node, Entry entry) {
+        while (true) {
+            if (node.children != null) {
+                Node child = childFullyContaining(node, entry.bounds);
+                if (child != null) {
+                    node = child;
+                    continue;
+                }
+            }
+
+            node.entries.add(entry);
+            entry.node = node;
+
+            if (node.children == null && node.entries.size() > NODE_CAPACITY && node.depth < MAX_DEPTH) {
+                split(node);
+            }
+            return;
+        }
+    }
+
+    private void split(Node node) {
+        Rectangle b = node.bounds;
+        int halfWidth = b.width / 2;
+        int halfHeight = b.height / 2;
+        if (halfWidth == 0 || halfHeight == 0) {
+            return;
+        }
+
+        node.children = new Node[] {
+            new Node(new Rectangle(b.x, b.y, halfWidth, halfHeight), node.depth + 1),
+            new Node(new Rectangle(b.x + halfWidth, b.y, b.width - halfWidth, halfHeight), node.depth + 1),
+            new Node(new Rectangle(b.x, b.y + halfHeight, halfWidth, b.height - halfHeight), node.depth + 1),
+            new Node(new Rectangle(b.x + halfWidth, b.y + halfHeight, b.width - halfWidth, b.height - halfHeight), node.depth + 1)
+        };
+
+        // Push down entries that fit entirely in one child
+        List<Entry> kept = new ArrayList<>();
+        for (Entry entry : node.entries) {
+            Node child = childFullyContaining(node, entry.bounds);
+            if (child != null) {
+                child.entries.add(entry);
+                entry.node = child;
+            } else {
+                kept.add(entry);
+            }
+        }
+        node.entries.clear();
+        node.entries.addAll(kept);
+    }
+
+    private void collect(Node node, Rectangle region, List<Entry> found) {
+        for (Entry entry : node.entries) {
+            if (entry.bounds.intersects(region)) {
+                found.add(entry);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child.bounds.intersects(region)) {
+                    collect(child, region, found);
+                }
+            }
+        }
+    }
+
+    private static Node childFullyContaining(Node node, Rectangle r) {
+        for (Node child : node.children) {
+            if (child.bounds.contains(r)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static Node childContaining(Node node, Point p) {
+        if (node.children == null) {
+            return null;
+        }
+        for (Node child : node.children) {
+            if (child.bounds.contains(p)) {
+                return child;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,25 @@
+package com.drawingstudio.shapes;
+
+import java.awt.BasicStroke;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared round-capped strokes, one per width
+ * BasicStroke is immutable, so shapes and tools can all use the same instances
+ * instead of creating a new stroke on every draw
+ */
+public final class StrokeCache {
+    private static final Map<Integer, BasicStroke> strokes = new ConcurrentHashMap<>();
+
+    private StrokeCache() {
+    }
+
+    /**
+     * Get the round-capped, round-joined stroke of a width
+     */
+    public static BasicStroke get(int width) {
+        return strokes.computeIfAbsent(width,
+            w -> new BasicStroke(w, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+    }
+}
@@ -1,6 +1,7 @@
 package com.drawingstudio.shapes;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 
 /**
  * Represents a triangle shape
@@ -12,14 +13,12 @@ public class TriangleShape extends ShapeBase {
     }
     
     @Override
-    public void draw(Graphics2D g2d) {
-        g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-        
+    protected Path2D createPath() {
+        // The third vertex mirrors the end point around the start point
         int[] xPoints = {startPoint.x, endPoint.x, startPoint.x + (startPoint.x - endPoint.x)};
         int[] yPoints = {startPoint.y, endPoint.y, endPoint.y};
         
-        g2d.drawPolygon(xPoints, yPoints, 3);
+        return new Path2D.Float(new Polygon(xPoints, yPoints, 3));
     }
     
     @Override
@@ -57,6 +57,22 @@ public class ButtonStyler {
         }
     }
     
+    /**
+     * Style layer buttons (purple theme)
+     */
+    public static void styleLayerButtons(JButton... buttons) {
+        Color layerColor = new Color(155, 89, 182);
+        
+        for (JButton btn : buttons) {
+            btn.setFont(new Font("Arial", Font.BOLD, 11));
+            btn.setBackground(layerColor);
+            btn.setForeground(Color.WHITE);
+            btn.setFocusPainted(false);
+            btn.setCursor(new Cursor(Cursor.HAND_CURSOR));
+            btn.setPreferredSize(new Dimension(70, 26));
+        }
+    }
+    
     /**
      * Create a styled label for toolbar
      */
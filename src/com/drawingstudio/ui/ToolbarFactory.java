@@ -134,23 +134,80 @@ public class ToolbarFactory {
         return actionPanel;
     }
     
+    /**
+     * Create the layers panel (layer selection, opacity and stack buttons)
+     */
+    public static JPanel createLayersPanel(
+            Choice layerChoice,
+            Choice opacityChoice,
+            JButton newLayerBtn,
+            JButton newVectorBtn,
+            JButton deleteLayerBtn,
+            JButton visibilityBtn,
+            JButton raiseBtn,
+            JButton lowerBtn) {
+        
+        Color darkGray = new Color(40, 40, 40);
+        
+        JPanel layersPanel = new JPanel(new BorderLayout());
+        layersPanel.setBackground(darkGray);
+        
+        JPanel layersHeader = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 2));
+        layersHeader.setBackground(darkGray);
+        layersHeader.add(ButtonStyler.createStyledLabel("Layers:"));
+        
+        JPanel layersContent = new JPanel();
+        layersContent.setLayout(new BoxLayout(layersContent, BoxLayout.Y_AXIS));
+        layersContent.setBackground(darkGray);
+        
+        // Row 1: Active layer and its opacity
+        JPanel selectRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 2));
+        selectRow.setBackground(darkGray);
+        selectRow.add(layerChoice);
+        selectRow.add(opacityChoice);
+        layersContent.add(selectRow);
+        
+        // Row 2: Add and remove layers
+        JPanel editRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 2));
+        editRow.setBackground(darkGray);
+        editRow.add(newLayerBtn);
+        editRow.add(newVectorBtn);
+        editRow.add(deleteLayerBtn);
+        layersContent.add(editRow);
+        
+        // Row 3: Visibility and order
+        JPanel orderRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 2));
+        orderRow.setBackground(darkGray);
+        orderRow.add(visibilityBtn);
+        orderRow.add(raiseBtn);
+        orderRow.add(lowerBtn);
+        layersContent.add(orderRow);
+        
+        layersPanel.add(layersHeader, BorderLayout.NORTH);
+        layersPanel.add(layersContent, BorderLayout.CENTER);
+        
+        return layersPanel;
+    }
+    
     /**
      * Create the main toolbar panel containing all sections
      */
     public static JPanel createMainToolbar(
             JPanel propertiesPanel,
             JPanel shapesPanel,
-            JPanel actionsPanel) {
+            JPanel actionsPanel,
+            JPanel layersPanel) {
         
         Color darkGray = new Color(40, 40, 40);
         
-        JPanel toolPanel = new JPanel(new GridLayout(1, 3, 10, 5));
+        JPanel toolPanel = new JPanel(new GridLayout(1, 4, 10, 5));
         toolPanel.setPreferredSize(new Dimension(1000, 120));
         toolPanel.setBackground(darkGray);
         
         toolPanel.add(propertiesPanel);
         toolPanel.add(shapesPanel);
         toolPanel.add(actionsPanel);
+        toolPanel.add(layersPanel);
         
         return toolPanel;
     }
@@ -0,0 +1,202 @@
+package com.drawingstudio.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for rendering, history and file I/O
+ *
+ * The events show up in any JFR recording next to the JVM's own GC and
+ * safepoint events, e.g. with -XX:StartFlightRecording. They are enabled by
+ * default and skip stack traces; when no recording is running, begin and
+ * commit cost next to nothing. Callers fill in fields only after
+ * shouldCommit() so unrecorded events do no extra work.
+ */
+public final class FlightEvents {
+    private static final String CATEGORY = "Drawing Studio";
+
+    private FlightEvents() {
+    }
+
+    @Name("com.drawingstudio.Paint")
+    @Label("Canvas Paint")
+    @Description("One repaint of the drawing canvas")
+    @Category({CATEGORY, "Rendering"})
+    @StackTrace(false)
+    public static class Paint extends Event {
+        @Label("Shape Count")
+        public int shapeCount;
+
+        @Label("Dirty Area")
+        @Description("Pixels recomposited")
+        public long dirtyArea;
+
+        @Label("Region Width")
+        public int regionWidth;
+
+        @Label("Region Height")
+        public int regionHeight;
+    }
+
+    @Name("com.drawingstudio.StrokeCommit")
+    @Label("Stroke Commit")
+    @Description("A brush or eraser stroke turned into a shape on mouse release")
+    @Category({CATEGORY, "Input"})
+    @StackTrace(false)
+    public static class StrokeCommit extends Event {
+        @Label("Samples")
+        @Description("Mouse samples received during the stroke")
+        public long sampleCount;
+
+        @Label("Points")
+        @Description("Points kept after simplification")
+        public int pointCount;
+
+        @Label("Encoded Size")
+        @DataAmount(DataAmount.BYTES)
+        public long encodedBytes;
+
+        @Label("Shape Count")
+        public int shapeCount;
+    }
+
+    @Name("com.drawingstudio.History")
+    @Label("History Action")
+    @Description("An action recorded, undone or redone")
+    @Category({CATEGORY, "History"})
+    @StackTrace(false)
+    public static class History extends Event {
+        @Label("Action")
+        public String action;
+
+        @Label("Operation")
+        public String operation;
+
+        @Label("Position")
+        public int position;
+
+        @Label("Shape Count")
+        public int shapeCount;
+
+        @Label("History Size")
+        @DataAmount(DataAmount.BYTES)
+        public long historyBytes;
+    }
+
+    @Name("com.drawingstudio.HistorySnapshot")
+    @Label("History Snapshot")
+    @Description("Tiles of the drawing surface copied for a history keyframe")
+    @Category({CATEGORY, "History"})
+    @StackTrace(false)
+    public static class HistorySnapshot extends Event {
+        @Label("Tiles")
+        public int tileCount;
+
+        @Label("Copied Tiles")
+        public int copiedTiles;
+
+        @Label("Snapshot Size")
+        @Description("Pixel data copied for this snapshot")
+        @DataAmount(DataAmount.BYTES)
+        public long copiedBytes;
+    }
+
+    @Name("com.drawingstudio.FileSave")
+    @Label("File Save")
+    @Category({CATEGORY, "File I/O"})
+    @StackTrace(false)
+    public static class FileSave extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Format")
+        public String format;
+
+        @Label("Background")
+        public boolean background;
+
+        @Label("Shape Count")
+        public int shapeCount;
+
+        @Label("File Size")
+        @DataAmount(DataAmount.BYTES)
+        public long bytes;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("com.drawingstudio.FileLoad")
+    @Label("File Load")
+    @Category({CATEGORY, "File I/O"})
+    @StackTrace(false)
+    public static class FileLoad extends Event {
+        @Label("Path")
+        public String path;
+
+        @Label("Format")
+        public String format;
+
+        @Label("Shape Count")
+        public int shapeCount;
+
+        @Label("File Size")
+        @DataAmount(DataAmount.BYTES)
+        public long bytes;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("com.drawingstudio.ColorPick")
+    @Label("Color Pick")
+    @Description("A pixel probed by the color picker, on click or while hovering")
+    @Category({CATEGORY, "Input"})
+    @StackTrace(false)
+    public static class ColorPick extends Event {
+        @Label("X")
+        public int x;
+
+        @Label("Y")
+        public int y;
+
+        @Label("Color")
+        public int rgb;
+
+        @Label("Shapes Drawn")
+        @Description("Shapes covering the pixel that had to be drawn to probe it")
+        public int shapesDrawn;
+
+        @Label("Picked")
+        @Description("True for a click, false for a hover preview")
+        public boolean picked;
+    }
+
+    @Name("com.drawingstudio.Fill")
+    @Label("Fill")
+    @Description("An area filled with the fill tool")
+    @Category({CATEGORY, "Input"})
+    @StackTrace(false)
+    public static class Fill extends Event {
+        @Label("X")
+        public int x;
+
+        @Label("Y")
+        public int y;
+
+        @Label("Tolerance")
+        public int tolerance;
+
+        @Label("Spans")
+        @Description("Horizontal runs of pixels filled, as stored in the history")
+        public int spanCount;
+
+        @Label("Pixels")
+        public long pixelCount;
+    }
+}
@@ -0,0 +1,248 @@
+package com.drawingstudio.utils;
+
+import java.util.Arrays;
+
+/**
+ * Scanline flood fill over packed ARGB pixels
+ *
+ * Each step fills a whole horizontal run of matching pixels, then looks for
+ * new runs only along the rows just above and below it, so every pixel is
+ * read a small, fixed number of times. The result is the set of filled runs
+ * ("spans") rather than changed pixels; the caller writes them wherever the
+ * fill belongs. The seed stack, the spans and the visited mask are kept
+ * between fills, so a fill allocates nothing once they have grown.
+ *
+ * An image too large to hold at once can be filled a band of rows at a
+ * time. Where the fill reaches the edge of a band it continues into the
+ * next one, and a band is fetched again whenever the fill winds back into
+ * it, so the result is the same as filling the whole image.
+ */
+public class FloodFill {
+
+    /**
+     * Supplies the pixels of one band of rows of the image being filled
+     */
+    public interface BandSource {
+        /**
+         * @param y First row of the band
+         * @param rows Number of rows in the band
+         * @return Packed ARGB pixels of the band, row by row; only read, and only until the next call
+         */
+        int[] getBand(int y, int rows);
+    }
+
+    // Filled runs as (y, startX, endX) triples, endX exclusive
+    private int[] spans = new int[3 * 256];
+    private int spanCount = 0;
+    private long pixelCount = 0;
+
+    // Seed points still to expand within the current band, as (x, y) pairs
+    private int[] stack = new int[2 * 256];
+
+    // Pixels of the current band already filled; reset after each visit along the spans, not wholesale
+    private boolean[] filled = new boolean[0];
+
+    // Per band: indices of the spans that lie in it, and the runs where the
+    // fill enters it from a neighbouring band, as (y, startX, endX) triples
+    private int[][] bandSpans = new int[0][];
+    private int[] bandSpanCounts = new int[0];
+    private int[][] entries = new int[0][];
+    private int[] entryCounts = new int[0];
+
+    /**
+     * Fill the area of similar color around a seed pixel
+     * Afterwards getSpans and getSpanCount describe the filled area
+     * @param pixels Packed ARGB pixels, row by row; only read
+     * @param tolerance Largest difference in any channel, alpha included, from the
+     *                  seed pixel for a pixel to be filled; 0 fills only the exact color
+     * @return Number of spans filled, 0 if the seed is outside the image
+     */
+    public int fill(int[] pixels, int width, int height, int seedX, int seedY, int tolerance) {
+        return fill((y, rows) -> pixels, width, height, height, seedX, seedY, tolerance);
+    }
+
+    /**
+     * Fill the area of similar color around a seed pixel, reading the image a band of rows at a time
+     * Only one band is held at once, so memory is bounded by the band size however large the image
+     * @param source Supplies the bands; may be asked for the same band more than once
+     * @param bandHeight Rows per band; the last band may be shorter
+     * @param tolerance As for a fill of a whole image
+     * @return Number of spans filled, 0 if the seed is outside the image
+     */
+    public int fill(BandSource source, int width, int height, int bandHeight, int seedX, int seedY, int tolerance) {
+        spanCount = 0;
+        pixelCount = 0;
+        if (seedX < 0 || seedY < 0 || seedX >= width || seedY >= height) {
+            return 0;
+        }
+        if (filled.length < width * bandHeight) {
+            filled = new boolean[width * bandHeight];
+        }
+        int bandCount = (height + bandHeight - 1) / bandHeight;
+        if (entries.length < bandCount) {
+            bandSpans = Arrays.copyOf(bandSpans, bandCount);
+            bandSpanCounts = new int[bandCount];
+            entries = Arrays.copyOf(entries, bandCount);
+            entryCounts = new int[bandCount];
+        }
+        Arrays.fill(bandSpanCounts, 0, bandCount, 0);
+        Arrays.fill(entryCounts, 0, bandCount, 0);
+
+        addEntry(seedY / bandHeight, seedY, seedX, seedX + 1);
+        int seed = 0;
+        boolean seedRead = false;
+        for (int band = nextPendingBand(bandCount); band >= 0; band = nextPendingBand(bandCount)) {
+            int bandY = band * bandHeight;
+            int rows = Math.min(bandHeight, height - bandY);
+            int[] pixels = source.getBand(bandY, rows);
+            if (!seedRead) {
+                seed = pixels[(seedY - bandY) * width + seedX];
+                seedRead = true;
+            }
+            fillBand(pixels, width, rows, band, bandY, bandCount, seed, tolerance);
+        }
+        return spanCount;
+    }
+
+    /**
+     * Expand the fill from the runs where it enters a band, until it is
+     * complete within the band or leaves it
+     */
+    private void fillBand(int[] pixels, int width, int rows, int band, int bandY, int bandCount, int seed, int tolerance) {
+        // Spans found on earlier visits must not be filled again
+        markSpans(band, bandY, width, true);
+
+        int top = 0;
+        int[] bandEntries = entries[band];
+        for (int i = 0; i < entryCounts[band] * 3; i += 3) {
+            top = pushRuns(pixels, width, bandEntries[i] - bandY, bandEntries[i + 1], bandEntries[i + 2], seed, tolerance, top);
+        }
+        entryCounts[band] = 0;
+
+        while (top > 0) {
+            int y = stack[--top];
+            int x = stack[--top];
+            int row = y * width;
+            if (filled[row + x]) {
+                continue;
+            }
+
+            // Widen the seed into the whole run it belongs to
+            int left = x;
+            while (left > 0 && !filled[row + left - 1] && matches(pixels[row + left - 1], seed, tolerance)) {
+                left--;
+            }
+            int right = x + 1;
+            while (right < width && !filled[row + right] && matches(pixels[row + right], seed, tolerance)) {
+                right++;
+            }
+            Arrays.fill(filled, row + left, row + right, true);
+            addSpan(band, bandY + y, left, right);
+
+            // One seed per run of fillable pixels touching this one, above and below;
+            // past the edge of the band the neighbouring band picks the run up
+            if (y > 0) {
+                top = pushRuns(pixels, width, y - 1, left, right, seed, tolerance, top);
+            } else if (band > 0) {
+                addEntry(band - 1, bandY - 1, left, right);
+            }
+            if (y < rows - 1) {
+                top = pushRuns(pixels, width, y + 1, left, right, seed, tolerance, top);
+            } else if (band < bandCount - 1) {
+                addEntry(band + 1, bandY + rows, left, right);
+            }
+        }
+
+        // Leave the mask clear for the next visit, touching only what was filled
+        markSpans(band, bandY, width, false);
+    }
+
+    private int pushRuns(int[] pixels, int width, int y, int left, int right, int seed, int tolerance, int top) {
+        int row = y * width;
+        boolean inRun = false;
+        for (int x = left; x < right; x++) {
+            boolean fillable = !filled[row + x] && matches(pixels[row + x], seed, tolerance);
+            if (fillable && !inRun) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = x;
+                stack[top++] = y;
+            }
+            inRun = fillable;
+        }
+        return top;
+    }
+
+    private int nextPendingBand(int bandCount) {
+        for (int band = 0; band < bandCount; band++) {
+            if (entryCounts[band] > 0) {
+                return band;
+            }
+        }
+        return -1;
+    }
+
+    private void markSpans(int band, int bandY, int width, boolean value) {
+        int[] indices = bandSpans[band];
+        for (int i = 0; i < bandSpanCounts[band]; i++) {
+            int span = indices[i] * 3;
+            int row = (spans[span] - bandY) * width;
+            Arrays.fill(filled, row + spans[span + 1], row + spans[span + 2], value);
+        }
+    }
+
+    private void addEntry(int band, int y, int left, int right) {
+        int[] bandEntries = entries[band];
+        int count = entryCounts[band];
+        if (bandEntries == null || count * 3 + 3 > bandEntries.length) {
+            bandEntries = bandEntries == null ? new int[3 * 16] : Arrays.copyOf(bandEntries, bandEntries.length * 2);
+            entries[band] = bandEntries;
+        }
+        bandEntries[count * 3] = y;
+        bandEntries[count * 3 + 1] = left;
+        bandEntries[count * 3 + 2] = right;
+        entryCounts[band] = count + 1;
+    }
+
+    private void addSpan(int band, int y, int left, int right) {
+        if (spanCount * 3 + 3 > spans.length) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[spanCount * 3] = y;
+        spans[spanCount * 3 + 1] = left;
+        spans[spanCount * 3 + 2] = right;
+
+        int[] indices = bandSpans[band];
+        int count = bandSpanCounts[band];
+        if (indices == null || count + 1 > indices.length) {
+            indices = indices == null ? new int[256] : Arrays.copyOf(indices, indices.length * 2);
+            bandSpans[band] = indices;
+        }
+        indices[count] = spanCount;
+        bandSpanCounts[band] = count + 1;
+
+        spanCount++;
+        pixelCount += right - left;
+    }
+
+    private static boolean matches(int pixel, int seed, int tolerance) {
+        if (pixel == seed) {
+            return true;
+        }
+        return Math.abs((pixel >>> 24) - (seed >>> 24)) <= tolerance
+            && Math.abs(((pixel >> 16) & 0xFF) - ((seed >> 16) & 0xFF)) <= tolerance
+            && Math.abs(((pixel >> 8) & 0xFF) - ((seed >> 8) & 0xFF)) <= tolerance
+            && Math.abs((pixel & 0xFF) - (seed & 0xFF)) <= tolerance;
+    }
+
+    // Getters
+
+    /**
+     * Get the spans of the last fill as (y, startX, endX) triples, endX exclusive
+     * Only the first getSpanCount triples are valid, and only until the next fill
+     */
+    public int[] getSpans() { return spans; }
+    public int getSpanCount() { return spanCount; }
+    public long getPixelCount() { return pixelCount; }
+}
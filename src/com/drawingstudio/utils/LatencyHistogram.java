@@ -0,0 +1,121 @@
+package com.drawingstudio.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds
+ *
+ * Buckets are log-linear: each power of two is split into eight equal
+ * buckets, so any recorded value is known to within 12.5% while the whole
+ * range up to about 18 minutes fits in a few hundred counters. Recording
+ * is one atomic increment and never allocates, so it can stay on in the
+ * paint and input paths. Readers take a snapshot and subtract an earlier
+ * one to get the values recorded in between.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record one duration
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * Record the time elapsed since a System.nanoTime() reading
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Copy the current counts
+     * Values recorded while copying may or may not be included
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_COUNT) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT - 1 + SUB_BITS;
+        int sub = bucket % SUB_COUNT;
+        return (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+
+    /**
+     * Counts of a histogram at one moment
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+
+        /**
+         * Get the values recorded after an earlier snapshot of the same histogram
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * Get the duration below which a fraction of the values fall
+         * @param fraction From 0 to 1, e.g. 0.99 for the 99th percentile
+         * @return Upper edge of the bucket holding that value, in nanoseconds, or 0 if empty
+         */
+        public long getPercentile(double fraction) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i + 1 < counts.length ? lowerBound(i + 1) - 1 : lowerBound(i);
+                }
+            }
+            return lowerBound(counts.length - 1);
+        }
+    }
+}
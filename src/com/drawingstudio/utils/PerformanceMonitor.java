@@ -0,0 +1,48 @@
+package com.drawingstudio.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Application-wide timing statistics, shown by the performance overlay
+ * Recording is always on; it costs a clock read and an atomic increment
+ */
+public final class PerformanceMonitor {
+    private static final LatencyHistogram paintTimes = new LatencyHistogram();
+    private static final LatencyHistogram inputTimes = new LatencyHistogram();
+    private static final LatencyHistogram historyTimes = new LatencyHistogram();
+    private static final AtomicLong framesShown = new AtomicLong();
+
+    // Duration of the most recent save and load, or -1 if there was none yet
+    private static volatile long lastSaveMillis = -1;
+    private static volatile long lastLoadMillis = -1;
+
+    private PerformanceMonitor() {
+    }
+
+    /**
+     * Time spent in each canvas paint
+     */
+    public static LatencyHistogram getPaintTimes() { return paintTimes; }
+
+    /**
+     * Time spent handling each batch of mouse input
+     */
+    public static LatencyHistogram getInputTimes() { return inputTimes; }
+
+    /**
+     * Time spent recording, undoing and redoing actions
+     */
+    public static LatencyHistogram getHistoryTimes() { return historyTimes; }
+
+    /**
+     * Count a frame put on screen by active rendering
+     * Several paints may go into one frame, e.g. when its back buffer is lost and drawn again
+     */
+    public static void recordFrameShown() { framesShown.incrementAndGet(); }
+    public static long getFramesShown() { return framesShown.get(); }
+
+    public static void recordSave(long millis) { lastSaveMillis = millis; }
+    public static void recordLoad(long millis) { lastLoadMillis = millis; }
+    public static long getLastSaveMillis() { return lastSaveMillis; }
+    public static long getLastLoadMillis() { return lastLoadMillis; }
+}
@@ -0,0 +1,145 @@
+package com.drawingstudio.utils;
+
+import com.drawingstudio.shapes.FreehandShape;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+
+/**
+ * Reduces freehand stroke samples as they arrive
+ *
+ * An online form of Ramer-Douglas-Peucker: samples are collected in a
+ * window after the last kept point, and the window is closed as soon as
+ * one of its samples would stray further than the tolerance from the
+ * straight line to the newest sample. Every dropped sample therefore lies
+ * within the tolerance of the simplified stroke, and the work per sample
+ * is bounded by the window size, so it runs comfortably during a drag.
+ */
+public class StrokeSimplifier {
+    private static final int MAX_WINDOW = 64;
+
+    private double tolerance;
+    private FreehandShape.Smoothing smoothing;
+
+    // Kept points of the stroke in progress
+    private int[] xs = new int[256];
+    private int[] ys = new int[256];
+    private int count = 0;
+
+    // Samples after the last kept point; the last one is the candidate to keep next
+    private final int[] windowX = new int[MAX_WINDOW];
+    private final int[] windowY = new int[MAX_WINDOW];
+    private int windowCount = 0;
+
+    // Totals over all strokes, for reporting
+    private long totalInput = 0;
+    private long totalOutput = 0;
+    private int strokeInput = 0;
+
+    /**
+     * @param tolerance Largest distance in pixels a dropped sample may be from the result; 0 keeps every sample
+     * @param smoothing How the kept points are joined when the stroke is drawn
+     */
+    public StrokeSimplifier(double tolerance, FreehandShape.Smoothing smoothing) {
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Start a new stroke at a point
+     */
+    public void begin(int x, int y) {
+        count = 0;
+        windowCount = 0;
+        strokeInput = 1;
+        keep(x, y);
+    }
+
+    /**
+     * Add the next sample of the stroke
+     */
+    public void add(int x, int y) {
+        strokeInput++;
+        int lastX = windowCount > 0 ? windowX[windowCount - 1] : xs[count - 1];
+        int lastY = windowCount > 0 ? windowY[windowCount - 1] : ys[count - 1];
+        if (x == lastX && y == lastY) {
+            return;
+        }
+
+        if (windowCount > 0 && (windowCount == MAX_WINDOW || !windowFits(x, y))) {
+            // The previous sample is as far as a straight line can go; keep it
+            keep(windowX[windowCount - 1], windowY[windowCount - 1]);
+            windowCount = 0;
+        }
+        windowX[windowCount] = x;
+        windowY[windowCount] = y;
+        windowCount++;
+    }
+
+    /**
+     * Finish the stroke, keeping its last sample
+     * Afterwards getX, getY and getPointCount describe the simplified stroke
+     */
+    public void finish() {
+        if (windowCount > 0) {
+            keep(windowX[windowCount - 1], windowY[windowCount - 1]);
+            windowCount = 0;
+        }
+        totalInput += strokeInput;
+        totalOutput += count;
+        strokeInput = 0;
+    }
+
+    /**
+     * Check if every sample in the window is close to the line from the last kept point to (x, y)
+     */
+    private boolean windowFits(int x, int y) {
+        if (tolerance <= 0) {
+            return false;
+        }
+        double limit = tolerance * tolerance;
+        int anchorX = xs[count - 1];
+        int anchorY = ys[count - 1];
+        for (int i = 0; i < windowCount; i++) {
+            if (Line2D.ptSegDistSq(anchorX, anchorY, x, y, windowX[i], windowY[i]) > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void keep(int x, int y) {
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, count * 2);
+            ys = Arrays.copyOf(ys, count * 2);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+
+    // Getters
+    public int[] getX() { return xs; }
+    public int[] getY() { return ys; }
+    public int getPointCount() { return count; }
+    public double getTolerance() { return tolerance; }
+    public FreehandShape.Smoothing getSmoothing() { return smoothing; }
+    public long getTotalInput() { return totalInput; }
+    public long getTotalOutput() { return totalOutput; }
+
+    // Setters
+    public void setTolerance(double tolerance) { this.tolerance = tolerance; }
+    public void setSmoothing(FreehandShape.Smoothing smoothing) { this.smoothing = smoothing; }
+
+    /**
+     * Get how many input samples there were for each kept point, over all finished strokes
+     */
+    public double getReductionRatio() {
+        return totalOutput == 0 ? 1.0 : (double) totalInput / totalOutput;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Strokes: %d samples kept as %d points (%.1fx reduction, tolerance %.1f px, %s smoothing)",
+            totalInput, totalOutput, getReductionRatio(), tolerance, smoothing.name().toLowerCase());
+    }
+}